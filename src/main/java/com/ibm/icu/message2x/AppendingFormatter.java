@@ -0,0 +1,27 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A {@link Formatter} that can append the formatted value directly to the output,
+ * without creating a {@link FormattedPlaceholder} first.
+ *
+ * <p>Used by {@link MessageFormatter} for the placeholders that are only appended to the
+ * result, and never kept as a resolved value (declarations, selectors).</p>
+ */
+interface AppendingFormatter {
+    /**
+     * Formats an object and appends the result.
+     *
+     * @param toFormat the object to format.
+     * @param variableOptions options that are not know at build time.
+     * @param result where to append the formatted value.
+     * @throws IOException when appending to {@code result} fails.
+     */
+    void appendTo(Object toFormat, Map<String, Object> variableOptions, Appendable result)
+            throws IOException;
+}
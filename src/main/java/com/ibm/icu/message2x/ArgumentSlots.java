@@ -0,0 +1,126 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The names of the variables used by a message, in the order expected by the
+ * positional formatting methods of {@link MessageFormatter}.
+ *
+ * <p>Each variable name used in the message (as placeholder, option value, selector,
+ * or declaration) gets a slot, in the order of the first use in the message.
+ * Callers formatting the same message many times can fill an array once per call,
+ * indexed by slot, and skip the map lookups done for every variable.</p>
+ *
+ * <pre>
+ * MessageFormatter mf = MessageFormatter.builder()
+ *         .setPattern("Hello {$user}, you have {$count :number} messages.")
+ *         .build();
+ * ArgumentSlots slots = mf.getArgumentSlots();
+ * Object[] arguments = slots.newArguments();
+ * int userSlot = slots.indexOf("user");
+ * int countSlot = slots.indexOf("count");
+ * StringBuilder result = new StringBuilder();
+ * for (Inbox inbox : inboxes) {
+ *     arguments[userSlot] = inbox.getUser();
+ *     arguments[countSlot] = inbox.getCount();
+ *     result.setLength(0);
+ *     mf.formatTo(arguments, result);
+ *     ...
+ * }
+ * </pre>
+ *
+ * @internal ICU 72 technology preview
+ * @deprecated This API is for technology preview only.
+ */
+@Deprecated
+public class ArgumentSlots {
+    private final String[] names;
+    private final Map<String, Integer> slots;
+
+    ArgumentSlots(String[] names) {
+        this.names = names;
+        this.slots = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            slots.put(names[i], i);
+        }
+    }
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the number of slots.
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the names of the variables, in slot order.
+     *
+     * @return an unmodifiable list of variable names (without the {@code $} sigil).
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * Returns the slot of a variable.
+     *
+     * @param name the name of the variable (without the {@code $} sigil).
+     * @return the slot, or -1 if the message does not use this variable.
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public int indexOf(String name) {
+        Integer result = slots.get(name);
+        return result == null ? -1 : result;
+    }
+
+    /**
+     * Creates an array of arguments of the right size, with all the values {@code null}.
+     *
+     * @return a new array of arguments.
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public Object[] newArguments() {
+        return new Object[names.length];
+    }
+
+    // Copies the arguments from a map into an array, by slot
+    void fromMap(Map<String, Object> arguments, Object[] result) {
+        for (int i = 0; i < names.length; i++) {
+            result[i] = arguments.get(names[i]);
+        }
+    }
+
+    // The arguments by name, for the functions that still expect a map
+    Map<String, Object> toMap(Object[] arguments) {
+        Map<String, Object> result = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            if (arguments[i] != null) {
+                result.put(names[i], arguments[i]);
+            }
+        }
+        return result;
+    }
+}
@@ -4,12 +4,21 @@
 package com.ibm.icu.message2x;
 
 import com.ibm.icu.text.DateFormat;
+import com.ibm.icu.util.SimpleTimeZone;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Creates a {@link Formatter} doing formatting of date / time, similar to
@@ -56,6 +65,34 @@ class DateTimeFormatterFactory implements FormatterFactory {
      */
     @Override
     public Formatter createFormatter(Locale locale, Map<String, Object> fixedOptions) {
+        PerThreadDateFormat df = dateFormatForOptions(locale, fixedOptions);
+        return new DateTimeFormatter(locale, fixedOptions, df);
+    }
+
+    // Shared by all the messages, with the per thread clones. So there is one clone for each
+    // format and thread, no matter how many placeholders use the format.
+    static final IcuObjectCache<List<Object>, PerThreadDateFormat> DATE_FORMATS =
+            new IcuObjectCache<>(512);
+
+    // The options read by createDateFormatForOptions
+    private static final String[] DATE_FORMAT_OPTIONS = {"dateStyle", "timeStyle", "style",
+        "weekday", "era", "year", "month", "day", "hour", "hourCycle", "minute", "second",
+        "fractionalSecondDigits", "timeZoneName", "icu:skeleton"};
+
+    private PerThreadDateFormat dateFormatForOptions(
+            Locale locale, Map<String, Object> fixedOptions) {
+        List<Object> optionsKey = OptUtils.cacheKey(fixedOptions, DATE_FORMAT_OPTIONS);
+        if (optionsKey == OptUtils.NOT_CACHEABLE) {
+            return new PerThreadDateFormat(createDateFormatForOptions(locale, fixedOptions));
+        }
+        // The date formats capture the default time zone when created
+        List<Object> key = Arrays.asList(kind, locale, optionsKey,
+                com.ibm.icu.util.TimeZone.getDefault().getID());
+        return DATE_FORMATS.get(key,
+                k -> new PerThreadDateFormat(createDateFormatForOptions(locale, fixedOptions)));
+    }
+
+    private DateFormat createDateFormatForOptions(Locale locale, Map<String, Object> fixedOptions) {
         int dateStyle = DateFormat.NONE;
         int timeStyle = DateFormat.NONE;
         switch (kind) {
@@ -94,8 +131,7 @@ class DateTimeFormatterFactory implements FormatterFactory {
                 skeleton = OptUtils.getString(fixedOptions, "icu:skeleton", "");
             }
             if (!skeleton.isEmpty()) {
-                DateFormat df = DateFormat.getInstanceForSkeleton(skeleton, locale);
-                return new DateTimeFormatter(locale, df);
+                return DateFormat.getInstanceForSkeleton(skeleton, locale);
             }
 
             // No skeletons, custom or otherwise, match fallback to short / short as per spec.
@@ -115,8 +151,7 @@ class DateTimeFormatterFactory implements FormatterFactory {
             }
         }
 
-        DateFormat df = DateFormat.getDateTimeInstance(dateStyle, timeStyle, locale);
-        return new DateTimeFormatter(locale, df);
+        return DateFormat.getDateTimeInstance(dateStyle, timeStyle, locale);
     }
 
     private static int getDateTimeStyle(Map<String, Object> options, String key) {
@@ -323,15 +358,45 @@ class DateTimeFormatterFactory implements FormatterFactory {
         return skeleton.toString();
     }
 
-    private static class DateTimeFormatter implements Formatter {
-        private final DateFormat icuFormatter;
-        private final Locale locale;
+    private class DateTimeFormatter implements Formatter, ThreadSafeFunction {
+        // Messages usually use only a few distinct values for the variable options
+        private static final int MAX_CACHED_FORMATTERS = 16;
 
-        private DateTimeFormatter(Locale locale, DateFormat df) {
+        private final PerThreadDateFormat icuFormatter;
+        private final Locale locale;
+        private final Map<String, Object> fixedOptions;
+        // The formatters built for the fixed options merged with variable ones,
+        // keyed by the values of the variable options that change the formatter.
+        private final BoundedCache<List<Object>, PerThreadDateFormat> cache =
+                new BoundedCache<>(MAX_CACHED_FORMATTERS);
+
+        private DateTimeFormatter(
+                Locale locale, Map<String, Object> fixedOptions, PerThreadDateFormat df) {
             this.locale = locale;
+            this.fixedOptions = OptUtils.snapshot(fixedOptions);
             this.icuFormatter = df;
         }
 
+        private PerThreadDateFormat formatterForVariableOptions(
+                Map<String, Object> variableOptions) {
+            List<Object> key = variableOptions.isEmpty()
+                    ? null
+                    : OptUtils.cacheKey(variableOptions, DATE_FORMAT_OPTIONS);
+            if (key == null) {
+                return icuFormatter;
+            }
+            PerThreadDateFormat result = key == OptUtils.NOT_CACHEABLE ? null : cache.get(key);
+            if (result == null) {
+                Map<String, Object> mergedOptions = new HashMap<>(fixedOptions);
+                mergedOptions.putAll(variableOptions);
+                result = dateFormatForOptions(locale, mergedOptions);
+                if (key != OptUtils.NOT_CACHEABLE) {
+                    cache.put(key, result);
+                }
+            }
+            return result;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -342,23 +407,44 @@ class DateTimeFormatterFactory implements FormatterFactory {
                 return null;
             }
             if (toFormat instanceof CharSequence) {
-                toFormat = parseIso8601(toFormat.toString());
+                IsoDateTime isoDate = IsoDateTime.parse((CharSequence) toFormat);
                 // We were unable to parse the input as iso date
-                if (toFormat instanceof CharSequence) {
+                if (isoDate == null) {
                     return new FormattedPlaceholder(
                             toFormat, new PlainStringFormattedValue("{|" + toFormat + "|}"));
                 }
+                String result = formatterForVariableOptions(variableOptions).format(isoDate);
+                return new FormattedPlaceholder(toFormat, new PlainStringFormattedValue(result));
             }
-            if (toFormat instanceof Calendar) {
-                TimeZone tz = ((Calendar) toFormat).getTimeZone();
-                long milis = ((Calendar) toFormat).getTimeInMillis();
-                com.ibm.icu.util.TimeZone icuTz = com.ibm.icu.util.TimeZone.getTimeZone(tz.getID());
-                com.ibm.icu.util.Calendar calendar =
-                        com.ibm.icu.util.Calendar.getInstance(icuTz, locale);
-                calendar.setTimeInMillis(milis);
-                toFormat = calendar;
+            PerThreadDateFormat df = formatterForVariableOptions(variableOptions);
+            String result;
+            if (toFormat instanceof Date || toFormat instanceof com.ibm.icu.util.Calendar) {
+                result = df.format(toFormat);
+            } else if (toFormat instanceof Calendar) {
+                Calendar calendar = (Calendar) toFormat;
+                result = df.format(calendar.getTimeInMillis(),
+                        icuTimeZone(calendar.getTimeZone().getID()));
+            } else if (toFormat instanceof Instant) {
+                result = df.format(((Instant) toFormat).toEpochMilli(), null);
+            } else if (toFormat instanceof ZonedDateTime) {
+                ZonedDateTime zdt = (ZonedDateTime) toFormat;
+                result = df.format(zdt.toInstant().toEpochMilli(), icuTimeZone(zdt.getZone()));
+            } else if (toFormat instanceof OffsetDateTime) {
+                OffsetDateTime odt = (OffsetDateTime) toFormat;
+                result = df.format(odt.toInstant().toEpochMilli(), icuTimeZone(odt.getOffset()));
+            } else if (toFormat instanceof LocalDate) {
+                // No time zone, so we format it as a UTC date, to get the same fields back
+                long millis = ((LocalDate) toFormat).toEpochDay() * MILLIS_PER_DAY;
+                result = df.format(millis, com.ibm.icu.util.TimeZone.GMT_ZONE);
+            } else if (toFormat instanceof LocalDateTime) {
+                long millis = ((LocalDateTime) toFormat).toInstant(ZoneOffset.UTC).toEpochMilli();
+                result = df.format(millis, com.ibm.icu.util.TimeZone.GMT_ZONE);
+            } else if (toFormat instanceof Long || toFormat instanceof Integer) {
+                // Milliseconds since epoch
+                result = df.format(((Number) toFormat).longValue(), null);
+            } else {
+                result = df.format(toFormat);
             }
-            String result = icuFormatter.format(toFormat);
             return new FormattedPlaceholder(toFormat, new PlainStringFormattedValue(result));
         }
 
@@ -372,63 +458,95 @@ class DateTimeFormatterFactory implements FormatterFactory {
         }
     }
 
-    private final static Pattern ISO_PATTERN = Pattern.compile(
-            "^(([0-9]{4})-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])){1}(T([01][0-9]|2[0-3]):([0-5][0-9]):([0-5][0-9])(\\.[0-9]{1,3})?(Z|[+-]((0[0-9]|1[0-3]):[0-5][0-9]|14:00))?)?$");
+    /**
+     * A {@link DateFormat} that can be shared between threads without locking.
+     *
+     * <p>{@code DateFormat} is not thread safe (it keeps the calendar it formats with),
+     * so each thread formats with its own clone of the prototype.
+     * The prototype itself is never used for formatting, so cloning it is safe.</p>
+     *
+     * <p>Cached in {@link #DATE_FORMATS}, and shared by all the formatters using
+     * the same format.</p>
+     */
+    static final class PerThreadDateFormat {
+        private final ThreadLocal<PerThreadState> perThread;
 
-    private static Integer safeParse(String str) {
-        if (str == null || str.isEmpty())
-            return null;
-        return Integer.parseInt(str);
-    }
+        PerThreadDateFormat(DateFormat prototype) {
+            this.perThread = ThreadLocal.withInitial(() -> new PerThreadState(prototype));
+        }
 
-    private static Object parseIso8601(String text) {
-        Matcher m = ISO_PATTERN.matcher(text);
-        if (m.find() && m.groupCount() == 12 && !m.group().isEmpty()) {
-            Integer year = safeParse(m.group(2));
-            Integer month = safeParse(m.group(3));
-            Integer day = safeParse(m.group(4));
-            Integer hour = safeParse(m.group(6));
-            Integer minute = safeParse(m.group(7));
-            Integer second = safeParse(m.group(8));
-            Integer millisecond = 0;
-            if (m.group(9) != null) {
-                String z = (m.group(9) + "000").substring(1, 4);
-                millisecond = safeParse(z);
-            } else {
-                millisecond = 0;
-            }
-            String tzPart = m.group(10);
+        String format(Object toFormat) {
+            return perThread.get().dateFormat.format(toFormat);
+        }
 
-            if (hour == null) {
-                hour = 0;
-                minute = 0;
-                second = 0;
-            }
+        /**
+         * Formats a moment in time, without allocating a new calendar.
+         *
+         * @param millis milliseconds since epoch.
+         * @param timeZone the time zone to use, or {@code null} for the one of the formatter.
+         * @return the formatted date.
+         */
+        String format(long millis, com.ibm.icu.util.TimeZone timeZone) {
+            PerThreadState state = perThread.get();
+            com.ibm.icu.util.Calendar calendar = state.calendar;
+            calendar.setTimeZone(timeZone == null ? state.defaultTimeZone : timeZone);
+            calendar.setTimeInMillis(millis);
+            return state.dateFormat.format(calendar);
+        }
 
-            com.ibm.icu.util.GregorianCalendar gc = new com.ibm.icu.util.GregorianCalendar(
-                    year, month - 1, day, hour, minute, second);
-            gc.set(com.ibm.icu.util.Calendar.MILLISECOND, millisecond);
-
-            if (tzPart != null) {
-                if (tzPart.equals("Z")) {
-                    gc.setTimeZone(com.ibm.icu.util.TimeZone.GMT_ZONE);
-                } else {
-                    int sign = tzPart.startsWith("-") ? -1 : 1;
-                    String[] tzParts = tzPart.substring(1).split(":");
-                    if (tzParts.length == 2) {
-                        Integer tzHour = safeParse(tzParts[0]);
-                        Integer tzMin = safeParse(tzParts[1]);
-                        if (tzHour != null && tzMin != null) {
-                            int offset = sign * (tzHour * 60 + tzMin) * 60 * 1000;
-                            gc.setTimeZone(new com.ibm.icu.util.SimpleTimeZone(offset, "offset"));
-                        }
-                    }
-                }
-            }
+        /**
+         * Formats a date parsed from an ISO 8601 string.
+         * Without a time zone in the string the fields are in the time zone of the formatter.
+         *
+         * @param isoDate the parsed date.
+         * @return the formatted date.
+         */
+        String format(IsoDateTime isoDate) {
+            PerThreadState state = perThread.get();
+            com.ibm.icu.util.TimeZone timeZone =
+                    isoDate.timeZone == null ? state.defaultTimeZone : isoDate.timeZone;
+            com.ibm.icu.util.Calendar calendar = state.calendar;
+            calendar.setTimeZone(timeZone);
+            calendar.setTimeInMillis(isoDate.toEpochMillis(timeZone, state.offsets));
+            return state.dateFormat.format(calendar);
+        }
+    }
 
-            return gc;
+    private static class PerThreadState {
+        final DateFormat dateFormat;
+        // Reused for all the dates that are not already an ICU calendar
+        final com.ibm.icu.util.Calendar calendar;
+        final com.ibm.icu.util.TimeZone defaultTimeZone;
+        // Scratch space for the time zone offsets
+        final int[] offsets = new int[2];
+
+        PerThreadState(DateFormat prototype) {
+            this.dateFormat = (DateFormat) prototype.clone();
+            this.calendar = (com.ibm.icu.util.Calendar) dateFormat.getCalendar().clone();
+            this.defaultTimeZone = dateFormat.getTimeZone();
         }
-        return text;
     }
 
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    // ICU time zones are expensive to create, and frozen ones can be shared.
+    // The ids come from the arguments, so the cache is bounded.
+    private static final IcuObjectCache<String, com.ibm.icu.util.TimeZone> ICU_TIME_ZONES =
+            new IcuObjectCache<>(128);
+
+    private static com.ibm.icu.util.TimeZone icuTimeZone(String id) {
+        return ICU_TIME_ZONES.get(id, k -> com.ibm.icu.util.TimeZone.getTimeZone(k).freeze());
+    }
+
+    private static com.ibm.icu.util.TimeZone icuTimeZone(ZoneId zoneId) {
+        ZoneId normalized = zoneId.normalized();
+        if (normalized instanceof ZoneOffset) {
+            ZoneOffset offset = (ZoneOffset) normalized;
+            // Cheap to create, from the offset itself: no id to parse, nothing to cache
+            return offset.getTotalSeconds() == 0
+                    ? com.ibm.icu.util.TimeZone.GMT_ZONE
+                    : new SimpleTimeZone(offset.getTotalSeconds() * 1000, "GMT" + offset.getId());
+        }
+        return icuTimeZone(normalized.getId());
+    }
 }
@@ -0,0 +1,131 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of one formatting call: the values of the variables, by slot,
+ * and the scratch space used while formatting.
+ *
+ * <p>A context can be reused for many formatting calls, with any {@link MessageFormatter},
+ * to avoid allocating these buffers every time. When formatting the same message in a loop,
+ * with strings as arguments, the only allocation is the result string.</p>
+ *
+ * <p>A context is not thread safe. Use one per thread (or per worker).</p>
+ *
+ * <pre>
+ * FormatContext context = new FormatContext();
+ * for (User user : users) {
+ *     String result = mf.formatToString(context, new Object[] {user.getName()});
+ *     ...
+ * }
+ * </pre>
+ *
+ * @internal ICU 72 technology preview
+ * @deprecated This API is for technology preview only.
+ */
+@Deprecated
+public class FormatContext {
+    private static final Object[] NO_VALUES = {};
+
+    // The arguments passed at runtime to be formatted (`mf.format(arguments)`), by slot
+    Object[] arguments = NO_VALUES;
+    // The values of the declarations (`.input` and `.local`), by declaration index.
+    // Resolved on demand, null until then.
+    Object[] locals = NO_VALUES;
+    // The number of declarations visible from the expression being resolved
+    int visibleDeclarations;
+    private ArgumentSlots slots;
+    // The arguments as a map, for the custom functions. Created on demand.
+    private Map<String, Object> argumentMap;
+    // Used for the arguments passed as a map
+    private Object[] argumentBuffer = NO_VALUES;
+
+    // The result of MFDataModelFormatter.FunctionCallNode.bind, valid until the next bind
+    Object boundInput;
+    String boundFunctionName;
+    Map<String, Object> boundOptions;
+    Map<String, Object> boundVariableOptions;
+    Formatter boundFormatter;
+
+    // Scratch space for the selection
+    final List<MFDataModelFormatter.ResolvedSelector> resolvedSelectors = new ArrayList<>();
+    final List<List<String>> preferences = new ArrayList<>();
+    private long[][] selectionBits = new long[0][];
+
+    // The result of formatToString
+    final StringBuilder output = new StringBuilder();
+
+    /**
+     * Creates a context, that can be used for any number of formatting calls.
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public FormatContext() {}
+
+    /** Prepares the context for a new formatting call, with the arguments by slot. */
+    void start(ArgumentSlots argumentSlots, int declarationCount, Object[] argumentArray) {
+        this.slots = argumentSlots;
+        this.arguments = argumentArray;
+        this.argumentMap = null;
+        if (locals.length < declarationCount) {
+            locals = new Object[declarationCount];
+        }
+        this.visibleDeclarations = declarationCount;
+    }
+
+    /** Prepares the context for a new formatting call, with the arguments by name. */
+    void start(
+            ArgumentSlots argumentSlots,
+            int declarationCount,
+            Map<String, Object> argumentsByName) {
+        int size = argumentSlots.size();
+        if (argumentBuffer.length < size) {
+            argumentBuffer = new Object[size];
+        }
+        argumentSlots.fromMap(argumentsByName, argumentBuffer);
+        start(argumentSlots, declarationCount, argumentBuffer);
+        this.argumentMap = argumentsByName;
+    }
+
+    /** Drops all the references to values, so that they don't outlive the call. */
+    void finish() {
+        Arrays.fill(locals, null);
+        Arrays.fill(argumentBuffer, null);
+        arguments = NO_VALUES;
+        argumentMap = null;
+        boundInput = null;
+        boundOptions = null;
+        boundVariableOptions = null;
+        boundFormatter = null;
+        resolvedSelectors.clear();
+        preferences.clear();
+    }
+
+    Map<String, Object> argumentMap() {
+        if (argumentMap == null) {
+            argumentMap = slots.toMap(arguments);
+        }
+        return argumentMap;
+    }
+
+    /** Scratch bitsets for the selection, at least {@code count} of at least {@code words}. */
+    long[][] selectionBits(int count, int words) {
+        if (selectionBits.length < count
+                || (count > 0 && selectionBits[count - 1].length < words)) {
+            long[][] result = new long[Math.max(count, selectionBits.length)][];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = new long[words];
+            }
+            selectionBits = result;
+        }
+        return selectionBits;
+    }
+}
@@ -5,36 +5,74 @@ package com.ibm.icu.message2x;
 
 import com.ibm.icu.text.ConstrainedFieldPosition;
 import com.ibm.icu.text.FormattedValue;
+import com.ibm.icu.text.MessageFormat;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.text.Format;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * Not yet implemented: The result of a message formatting operation.
+ * The result of a message formatting operation.
  *
  * <p>This contains information about where the various fields and placeholders
  * ended up in the final result.</p>
  * <p>This class allows the result to be exported in several data types,
  * including a {@link String}, {@link AttributedCharacterIterator}, more (TBD).</p>
  *
+ * <p>Each placeholder is reported as a {@link MessageFormat.Field#ARGUMENT} field,
+ * with the name of the variable (if any) as value. The fields of the formatted
+ * placeholders (for example the ones of a {@link com.ibm.icu.number.FormattedNumber})
+ * are also reported, with the positions adjusted to the full message.</p>
+ *
+ * <p>The message only keeps the parts (text and formatted placeholders).
+ * The string and the field positions are computed the first time they are needed.</p>
+ *
  * @internal ICU 72 technology preview
  * @deprecated This API is for ICU internal use only.
  */
 @Deprecated
 public class FormattedMessage implements FormattedValue {
+    // CharSequence for the text, Placeholder for the formatted placeholders
+    private final Object[] parts;
+    // Computed lazily
+    private String string;
+    private List<Span> spans;
 
-    /**
-     * Not yet implemented.
-     *
-     * @internal ICU 72 technology preview
-     * @deprecated This API is for ICU internal use only.
-     */
-    @Deprecated
-    public FormattedMessage() {
-        throw new RuntimeException("Not yet implemented.");
+    FormattedMessage(List<Object> parts) {
+        this.parts = parts.toArray();
+    }
+
+    /** A formatted placeholder, part of the message. */
+    static class Placeholder {
+        final String name;
+        final FormattedValue value;
+
+        Placeholder(String name, FormattedValue value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    /** A field, with the position in the full message. */
+    private static class Span {
+        final Format.Field field;
+        final Object value;
+        final int start;
+        final int limit;
+
+        Span(Format.Field field, Object value, int start, int limit) {
+            this.field = field;
+            this.value = value;
+            this.start = start;
+            this.limit = limit;
+        }
     }
 
     /**
-     * Not yet implemented.
-     *
      * {@inheritDoc}
      *
      * @internal ICU 72 technology preview
@@ -43,12 +81,10 @@ public class FormattedMessage implements FormattedValue {
     @Deprecated
     @Override
     public int length() {
-        throw new RuntimeException("Not yet implemented.");
+        return toString().length();
     }
 
     /**
-     * Not yet implemented.
-     *
      * {@inheritDoc}
      *
      * @internal ICU 72 technology preview
@@ -57,12 +93,10 @@ public class FormattedMessage implements FormattedValue {
     @Deprecated
     @Override
     public char charAt(int index) {
-        throw new RuntimeException("Not yet implemented.");
+        return toString().charAt(index);
     }
 
     /**
-     * Not yet implemented.
-     *
      * {@inheritDoc}
      *
      * @internal ICU 72 technology preview
@@ -71,12 +105,10 @@ public class FormattedMessage implements FormattedValue {
     @Deprecated
     @Override
     public CharSequence subSequence(int start, int end) {
-        throw new RuntimeException("Not yet implemented.");
+        return toString().subSequence(start, end);
     }
 
     /**
-     * Not yet implemented.
-     *
      * {@inheritDoc}
      *
      * @internal ICU 72 technology preview
@@ -85,12 +117,20 @@ public class FormattedMessage implements FormattedValue {
     @Deprecated
     @Override
     public <A extends Appendable> A appendTo(A appendable) {
-        throw new RuntimeException("Not yet implemented.");
+        if (string != null) {
+            return append(appendable, string);
+        }
+        for (Object part : parts) {
+            if (part instanceof Placeholder) {
+                ((Placeholder) part).value.appendTo(appendable);
+            } else {
+                append(appendable, (CharSequence) part);
+            }
+        }
+        return appendable;
     }
 
     /**
-     * Not yet implemented.
-     *
      * {@inheritDoc}
      *
      * @internal ICU 72 technology preview
@@ -99,12 +139,20 @@ public class FormattedMessage implements FormattedValue {
     @Deprecated
     @Override
     public boolean nextPosition(ConstrainedFieldPosition cfpos) {
-        throw new RuntimeException("Not yet implemented.");
+        List<Span> allSpans = getSpans();
+        for (int i = (int) cfpos.getInt64IterationContext(); i < allSpans.size(); i++) {
+            Span span = allSpans.get(i);
+            if (cfpos.matchesField(span.field, span.value)) {
+                cfpos.setState(span.field, span.value, span.start, span.limit);
+                cfpos.setInt64IterationContext(i + 1);
+                return true;
+            }
+        }
+        cfpos.setInt64IterationContext(allSpans.size());
+        return false;
     }
 
     /**
-     * Not yet implemented.
-     *
      * {@inheritDoc}
      *
      * @internal ICU 72 technology preview
@@ -113,6 +161,71 @@ public class FormattedMessage implements FormattedValue {
     @Deprecated
     @Override
     public AttributedCharacterIterator toCharacterIterator() {
-        throw new RuntimeException("Not yet implemented.");
+        AttributedString result = new AttributedString(toString());
+        for (Span span : getSpans()) {
+            if (span.start < span.limit) {
+                Object value = span.value == null ? span.field : span.value;
+                result.addAttribute(span.field, value, span.start, span.limit);
+            }
+        }
+        return result.getIterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for ICU internal use only.
+     */
+    @Deprecated
+    @Override
+    public String toString() {
+        String result = string;
+        if (result == null) {
+            result = appendTo(new StringBuilder()).toString();
+            string = result;
+        }
+        return result;
+    }
+
+    private List<Span> getSpans() {
+        List<Span> result = spans;
+        if (result != null) {
+            return result;
+        }
+        result = new ArrayList<>();
+        int offset = 0;
+        for (Object part : parts) {
+            if (part instanceof Placeholder) {
+                Placeholder placeholder = (Placeholder) part;
+                int length = placeholder.value.length();
+                result.add(new Span(MessageFormat.Field.ARGUMENT,
+                        placeholder.name, offset, offset + length));
+                ConstrainedFieldPosition cfpos = new ConstrainedFieldPosition();
+                while (placeholder.value.nextPosition(cfpos)) {
+                    result.add(new Span(cfpos.getField(), cfpos.getFieldValue(),
+                            offset + cfpos.getStart(), offset + cfpos.getLimit()));
+                }
+                offset += length;
+            } else {
+                offset += ((CharSequence) part).length();
+            }
+        }
+        // Sorted by start, with the enclosing fields first. The sort is stable.
+        result.sort((s1, s2) -> s1.start != s2.start
+                ? Integer.compare(s1.start, s2.start)
+                : Integer.compare(s2.limit, s1.limit));
+        result = Collections.unmodifiableList(result);
+        spans = result;
+        return result;
+    }
+
+    private static <A extends Appendable> A append(A appendable, CharSequence text) {
+        try {
+            appendable.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException("problem appending", e);
+        }
+        return appendable;
     }
 }
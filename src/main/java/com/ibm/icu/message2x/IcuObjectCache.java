@@ -0,0 +1,82 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A process wide cache for the ICU objects used by the standard functions
+ * (number formatters, plural rules, date formats), shared by all the messages.
+ *
+ * <p>A catalog with thousands of messages usually needs a few locale and option combinations,
+ * so most messages reuse the same ICU objects instead of creating their own.
+ * The values must be immutable, or only used as prototypes to clone.</p>
+ *
+ * <p>Thread safe. The lock is only held to look up and add entries, the objects are
+ * created outside of it. The size is bounded: when full, the least recently used entry
+ * is evicted.</p>
+ *
+ * @param <K> the type of the keys, with value semantics.
+ * @param <V> the type of the cached objects.
+ */
+final class IcuObjectCache<K, V> {
+    private final Map<K, V> map;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    IcuObjectCache(final int maxSize) {
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached object for the key, creating it if needed.
+     * Two threads might both create the object for the same key, and one of them wins.
+     *
+     * @param key the key.
+     * @param create creates the object, if not in the cache. Exceptions are not cached.
+     * @return the object.
+     */
+    V get(K key, Function<K, V> create) {
+        V result;
+        synchronized (map) {
+            result = map.get(key);
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        misses.incrementAndGet();
+        result = create.apply(key);
+        synchronized (map) {
+            V previous = map.putIfAbsent(key, result);
+            return previous != null ? previous : result;
+        }
+    }
+
+    /** The number of times an object was found in the cache. */
+    long hits() {
+        return hits.get();
+    }
+
+    /** The number of times an object was created. */
+    long misses() {
+        return misses.get();
+    }
+
+    int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+}
@@ -3,6 +3,7 @@
 
 package com.ibm.icu.message2x;
 
+import java.io.IOException;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
@@ -19,7 +20,8 @@ class IdentityFormatterFactory implements FormatterFactory {
         return new IdentityFormatterImpl();
     }
 
-    private static class IdentityFormatterImpl implements Formatter {
+    private static class IdentityFormatterImpl
+            implements Formatter, AppendingFormatter, ThreadSafeFunction {
         /**
          * {@inheritDoc}
          */
@@ -36,5 +38,15 @@ class IdentityFormatterFactory implements FormatterFactory {
         public String formatToString(Object toFormat, Map<String, Object> variableOptions) {
             return format(toFormat, variableOptions).toString();
         }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void appendTo(
+                Object toFormat, Map<String, Object> variableOptions, Appendable result)
+                throws IOException {
+            result.append(Objects.toString(toFormat));
+        }
     }
 }
@@ -3,82 +3,265 @@
 
 package com.ibm.icu.message2x;
 
-class InputSource {
-    final String buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 
-    private int cursor;
-    private int lastReadCursor = -1;
-    private int lastReadCount = 0;
+/**
+ * The text parsed by {@link MFParser}, read in place, one code point at a time.
+ *
+ * <p>The positions are offsets in the units of the source (UTF-16 code units for text,
+ * bytes for UTF-8), relative to the start of the message. The parser only goes back
+ * to positions it has seen, and only takes substrings between such positions.</p>
+ */
+abstract class InputSource {
+    static final int EOF = -1;
 
-    InputSource(String input) {
-        if (input == null) {
+    static InputSource of(CharSequence text) {
+        if (text == null) {
             throw new IllegalArgumentException("Input string should not be null");
         }
-        this.buffer = input;
-        this.cursor = 0;
+        return new CharSequenceSource(text);
     }
 
-    boolean atEnd() {
-        return cursor >= buffer.length();
+    static InputSource of(char[] text, int offset, int length) {
+        if (text == null) {
+            throw new IllegalArgumentException("Input array should not be null");
+        }
+        // Not a copy, the buffer reads from the array
+        return new CharSequenceSource(CharBuffer.wrap(text, offset, length));
     }
 
-    int peekChar() {
-        if (atEnd()) {
-            return -1;
+    static InputSource ofUtf8(ByteBuffer bytes) {
+        if (bytes == null) {
+            throw new IllegalArgumentException("Input buffer should not be null");
         }
-        return buffer.charAt(cursor);
+        return new Utf8Source(bytes);
     }
 
-    int readCodePoint() {
-        // TODO: remove this?
-        // START Detect possible infinite loop
-        if (lastReadCursor != cursor) {
-            lastReadCursor = cursor;
-            lastReadCount = 1;
-        } else {
-            lastReadCount++;
-            if (lastReadCount >= 10) {
-                throw new RuntimeException("Stuck in a loop!");
-            }
+    int cursor;
+
+    /** The length of the message, in units of the source. */
+    abstract int length();
+
+    boolean atEnd() {
+        return cursor >= length();
+    }
+
+    /**
+     * Returns the next unit, without consuming it.
+     * Only meaningful when compared to ASCII characters.
+     */
+    abstract int peekChar();
+
+    /** Returns the next code point and moves after it, or EOF. */
+    abstract int readCodePoint();
+
+    /**
+     * Puts back a code point just returned by {@link #readCodePoint()}.
+     * Nothing to put back at the end of the input.
+     */
+    abstract void unread(int cp);
+
+    /** The text between two positions. */
+    abstract String substring(int start, int end);
+
+    /** Appends the text between two positions. */
+    abstract void appendTo(StringBuilder result, int start, int end);
+
+    int getPosition() {
+        return cursor;
+    }
+
+    void gotoPosition(int position) {
+        // TODO: validate
+        cursor = position;
+    }
+
+    // String, StringBuilder, CharBuffer (also over a char[])
+    private static final class CharSequenceSource extends InputSource {
+        private final CharSequence buffer;
+        private final int length;
+
+        CharSequenceSource(CharSequence buffer) {
+            this.buffer = buffer;
+            this.length = buffer.length();
         }
-        // END Detect possible infinite loop
 
-        if (atEnd()) {
-            return -1;
+        @Override
+        int length() {
+            return length;
         }
 
-        char c = buffer.charAt(cursor++);
-        if (Character.isHighSurrogate(c)) {
-            if (!atEnd()) {
-                char c2 = buffer.charAt(cursor++);
+        @Override
+        int peekChar() {
+            if (cursor >= length) {
+                return EOF;
+            }
+            return buffer.charAt(cursor);
+        }
+
+        @Override
+        int readCodePoint() {
+            if (cursor >= length) {
+                return EOF;
+            }
+
+            char c = buffer.charAt(cursor++);
+            if (c < Character.MIN_HIGH_SURROGATE) {
+                // The common case, no need to look at the next char
+                return c;
+            }
+            if (Character.isHighSurrogate(c) && cursor < length) {
+                char c2 = buffer.charAt(cursor);
                 if (Character.isLowSurrogate(c2)) {
+                    cursor++;
                     return Character.toCodePoint(c, c2);
-                } else { // invalid, high surrogate followed by non-surrogate
-                    cursor--;
-                    return c;
                 }
+                // invalid, high surrogate followed by non-surrogate
             }
+            return c;
         }
-        return c;
-    }
 
-    // Backup a number of characters.
-    void backup(int amount) {
-        // TODO: validate
-        cursor -= amount;
-    }
+        @Override
+        void unread(int cp) {
+            if (cp >= 0) {
+                cursor -= Character.charCount(cp);
+            }
+        }
 
-    int getPosition() {
-        return cursor;
-    }
+        @Override
+        String substring(int start, int end) {
+            // For a String this is String.substring, no extra copy
+            return buffer.subSequence(start, end).toString();
+        }
 
-    void skip(int amount) {
-        // TODO: validate
-        cursor += amount;
+        @Override
+        void appendTo(StringBuilder result, int start, int end) {
+            result.append(buffer, start, end);
+        }
     }
 
-    void gotoPosition(int position) {
-        // TODO: validate
-        cursor = position;
+    /*
+     * UTF-8 bytes, from the position to the limit of a buffer.
+     * Ill-formed bytes are read one at a time, as unpaired surrogates (U+DC80..U+DCFF),
+     * so they are invalid everywhere in the syntax, same as in UTF-16 text.
+     */
+    private static final class Utf8Source extends InputSource {
+        private final ByteBuffer buffer;
+        private final int base;
+        private final int length;
+        // Where the last code point started, for unread
+        private int previous;
+        private byte[] scratch;
+
+        Utf8Source(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.base = buffer.position();
+            this.length = buffer.remaining();
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        int peekChar() {
+            if (cursor >= length) {
+                return EOF;
+            }
+            return buffer.get(base + cursor) & 0xFF;
+        }
+
+        @Override
+        int readCodePoint() {
+            previous = cursor;
+            if (cursor >= length) {
+                return EOF;
+            }
+            int b = buffer.get(base + cursor) & 0xFF;
+            if (b < 0x80) {
+                cursor++;
+                return b;
+            }
+            int cp = decode(cursor, b);
+            if (cp < 0) {
+                cursor++;
+                return 0xDC00 | b;
+            }
+            cursor += cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+            return cp;
+        }
+
+        // Returns the code point of a well formed sequence starting at position, or -1
+        private int decode(int position, int lead) {
+            int count;
+            int cp;
+            int min; // the limits for the second byte, to reject overlong forms and surrogates
+            int max = 0xBF;
+            if (lead >= 0xC2 && lead <= 0xDF) {
+                count = 1;
+                cp = lead & 0x1F;
+                min = 0x80;
+            } else if (lead >= 0xE0 && lead <= 0xEF) {
+                count = 2;
+                cp = lead & 0x0F;
+                min = lead == 0xE0 ? 0xA0 : 0x80;
+                max = lead == 0xED ? 0x9F : 0xBF;
+            } else if (lead >= 0xF0 && lead <= 0xF4) {
+                count = 3;
+                cp = lead & 0x07;
+                min = lead == 0xF0 ? 0x90 : 0x80;
+                max = lead == 0xF4 ? 0x8F : 0xBF;
+            } else {
+                return -1;
+            }
+            if (position + count >= length) {
+                return -1;
+            }
+            for (int i = 1; i <= count; i++) {
+                int b = buffer.get(base + position + i) & 0xFF;
+                if (b < min || b > max) {
+                    return -1;
+                }
+                min = 0x80;
+                max = 0xBF;
+                cp = (cp << 6) | (b & 0x3F);
+            }
+            return cp;
+        }
+
+        @Override
+        void unread(int cp) {
+            cursor = previous;
+        }
+
+        @Override
+        String substring(int start, int end) {
+            if (buffer.hasArray()) {
+                return new String(buffer.array(), buffer.arrayOffset() + base + start,
+                        end - start, StandardCharsets.UTF_8);
+            }
+            // Not on the heap, copy the bytes to a buffer reused for all the substrings
+            int length = end - start;
+            if (scratch == null || scratch.length < length) {
+                scratch = new byte[Math.max(length, 64)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(base + start + i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        void appendTo(StringBuilder result, int start, int end) {
+            int saved = cursor;
+            cursor = start;
+            while (cursor < end) {
+                result.appendCodePoint(readCodePoint());
+            }
+            cursor = saved;
+        }
     }
 }
@@ -0,0 +1,193 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import com.ibm.icu.util.Calendar;
+import com.ibm.icu.util.GregorianCalendar;
+import com.ibm.icu.util.SimpleTimeZone;
+import com.ibm.icu.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A date / time parsed from an ISO 8601 string.
+ *
+ * <p>The accepted syntax is {@code yyyy-MM-dd}, optionally followed by {@code THH:mm:ss},
+ * optional fractional seconds (up to 3 digits), and an optional time zone
+ * ({@code Z}, or an offset from {@code -14:00} to {@code +14:00}).</p>
+ *
+ * <p>The string is scanned in a single pass, without regular expressions, and the
+ * moment in time is computed directly from the fields, without a calendar.</p>
+ */
+final class IsoDateTime {
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final int MAX_OFFSET_MINUTES = 14 * 60;
+    // Before this the ICU GregorianCalendar uses the Julian calendar, so we let it do the work.
+    private static final int FIRST_GREGORIAN_YEAR = 1583;
+    // The time zones for offsets, indexed by the offset in minutes + MAX_OFFSET_MINUTES.
+    private static final AtomicReferenceArray<TimeZone> OFFSET_ZONES =
+            new AtomicReferenceArray<>(2 * MAX_OFFSET_MINUTES + 1);
+
+    final int year;
+    final int month; // 1 to 12
+    final int day;
+    final int hour;
+    final int minute;
+    final int second;
+    final int millisecond;
+    // The time zone from the string, or null if there was none.
+    final TimeZone timeZone;
+
+    private IsoDateTime(int year, int month, int day, int hour, int minute, int second,
+            int millisecond, TimeZone timeZone) {
+        this.year = year;
+        this.month = month;
+        this.day = day;
+        this.hour = hour;
+        this.minute = minute;
+        this.second = second;
+        this.millisecond = millisecond;
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Parses an ISO 8601 date / time.
+     *
+     * @param text the text to parse.
+     * @return the parsed date, or {@code null} if the text is not a valid ISO 8601 date.
+     */
+    static IsoDateTime parse(CharSequence text) {
+        int length = text.length();
+        // yyyy-MM-dd
+        if (length < 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+            return null;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return null;
+        }
+        if (length == 10) {
+            return new IsoDateTime(year, month, day, 0, 0, 0, 0, null);
+        }
+
+        // THH:mm:ss
+        if (length < 19 || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return null;
+        }
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+        int pos = 19;
+
+        // Optional fractional seconds, 1 to 3 digits
+        int millisecond = 0;
+        if (pos < length && text.charAt(pos) == '.') {
+            pos++;
+            int start = pos;
+            int scale = 100;
+            while (pos < length && pos - start < 3 && isDigit(text.charAt(pos))) {
+                millisecond += (text.charAt(pos) - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+            if (pos == start) {
+                return null;
+            }
+        }
+
+        // Optional time zone
+        TimeZone timeZone = null;
+        if (pos < length) {
+            char c = text.charAt(pos);
+            if (c == 'Z') {
+                timeZone = TimeZone.GMT_ZONE;
+                pos++;
+            } else if (c == '+' || c == '-') {
+                // [+-]HH:mm, up to 14:00
+                if (pos + 6 > length || text.charAt(pos + 3) != ':') {
+                    return null;
+                }
+                int tzHour = digits(text, pos + 1, 2);
+                int tzMinute = digits(text, pos + 4, 2);
+                if (tzHour < 0 || tzMinute < 0 || tzMinute > 59
+                        || tzHour > 14 || (tzHour == 14 && tzMinute != 0)) {
+                    return null;
+                }
+                int offsetMinutes = tzHour * 60 + tzMinute;
+                timeZone = offsetZone(c == '-' ? -offsetMinutes : offsetMinutes);
+                pos += 6;
+            } else {
+                return null;
+            }
+        }
+        if (pos != length) {
+            return null;
+        }
+        return new IsoDateTime(year, month, day, hour, minute, second, millisecond, timeZone);
+    }
+
+    /**
+     * Returns the moment in time (milliseconds since epoch).
+     *
+     * @param zone the time zone used to interpret the fields.
+     * @param offsets a scratch array of size 2, to avoid allocations.
+     * @return the milliseconds since epoch.
+     */
+    long toEpochMillis(TimeZone zone, int[] offsets) {
+        if (year < FIRST_GREGORIAN_YEAR) {
+            GregorianCalendar gc = new GregorianCalendar(zone);
+            gc.clear();
+            gc.set(year, month - 1, day, hour, minute, second);
+            gc.set(Calendar.MILLISECOND, millisecond);
+            return gc.getTimeInMillis();
+        }
+        long localMillis = daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60 + second) * 1000 + millisecond;
+        zone.getOffset(localMillis, true, offsets);
+        return localMillis - offsets[0] - offsets[1];
+    }
+
+    // Days since 1970-01-01, proleptic Gregorian calendar.
+    // From Howard Hinnant's "chrono-Compatible Low-Level Date Algorithms".
+    private static long daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    private static TimeZone offsetZone(int offsetMinutes) {
+        int index = offsetMinutes + MAX_OFFSET_MINUTES;
+        TimeZone result = OFFSET_ZONES.get(index);
+        if (result == null) {
+            result = new SimpleTimeZone(offsetMinutes * 60 * 1000, "offset").freeze();
+            OFFSET_ZONES.set(index, result);
+        }
+        return result;
+    }
+
+    // Returns the value of `count` ASCII digits starting at `start`, or -1 if not all are digits
+    private static int digits(CharSequence text, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -372,6 +372,8 @@ public class MFDataModel {
     @Deprecated
     public static class Literal implements LiteralOrVariableRef, LiteralOrCatchallKey {
         public final String value;
+        // The numeric value, parsed once, or null if the literal is not a number
+        final Number number;
 
         /**
          * @internal ICU 72 technology preview
@@ -379,7 +381,13 @@ public class MFDataModel {
          */
         @Deprecated
         public Literal(String value) {
+            this(value, OptUtils.asNumber(value));
+        }
+
+        // Used by the parser, for the number literals it already recognized
+        Literal(String value, Number number) {
             this.value = value;
+            this.number = number;
         }
     }
 
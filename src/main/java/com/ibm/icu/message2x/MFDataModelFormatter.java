@@ -17,18 +17,32 @@ import com.ibm.icu.message2x.MFDataModel.LiteralOrVariableRef;
 import com.ibm.icu.message2x.MFDataModel.LocalDeclaration;
 import com.ibm.icu.message2x.MFDataModel.Option;
 import com.ibm.icu.message2x.MFDataModel.Pattern;
+import com.ibm.icu.message2x.MFDataModel.PatternPart;
 import com.ibm.icu.message2x.MFDataModel.SelectMessage;
 import com.ibm.icu.message2x.MFDataModel.StringPart;
 import com.ibm.icu.message2x.MFDataModel.UnsupportedAnnotation;
 import com.ibm.icu.message2x.MFDataModel.UnsupportedExpression;
+import com.ibm.icu.message2x.MFDataModel.VariableExpression;
 import com.ibm.icu.message2x.MFDataModel.VariableRef;
 import com.ibm.icu.message2x.MFDataModel.Variant;
+import com.ibm.icu.text.FormattedValue;
 import com.ibm.icu.util.Calendar;
 import com.ibm.icu.util.CurrencyAmount;
+import com.ibm.icu.util.ICUUncheckedIOException;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -36,157 +50,472 @@ import java.util.Map;
 /**
  * Takes an {@link MFDataModel} and formats it to a {@link String}
  * (and later on we will also implement formatting to a {@code FormattedMessage}).
+ *
+ * <p>The data model is "compiled" once, in the constructor (so when the {@link MessageFormatter}
+ * is built), into an immutable execution plan: text nodes, expression nodes with the function
+ * factories already looked up, the literals already resolved, the fallback strings already
+ * computed, and so on. Formatting a message is then a straight loop over these nodes.</p>
+ *
+ * <p>Each variable name gets an integer slot when compiling (see {@link ArgumentSlots}),
+ * and the nodes read the variables by slot. Arguments passed as a map are copied
+ * into an array once per call.</p>
  */
 // TODO: move this in the MessageFormatter?
 class MFDataModelFormatter {
     private final Locale locale;
-    private final MFDataModel.Message dm;
 
-    private final MFFunctionRegistry standardFunctions;
-    private final MFFunctionRegistry customFunctions;
-    private static final MFFunctionRegistry EMPTY_REGISTY = MFFunctionRegistry.builder().build();
+    private final FunctionLookup functions;
+    private final MFLimits limits;
+
+    // The standard functions.
+    // The factories are stateless, so one registry is shared by all messages.
+    private static final MFFunctionRegistry STANDARD_FUNCTIONS =
+            MFFunctionRegistry.builder()
+                    // Date/time formatting
+                    .setFormatter("datetime", new DateTimeFormatterFactory("datetime"))
+                    .setFormatter("date", new DateTimeFormatterFactory("date"))
+                    .setFormatter("time", new DateTimeFormatterFactory("time"))
+                    .setDefaultFormatterNameForType(Date.class, "datetime")
+                    .setDefaultFormatterNameForType(Calendar.class, "datetime")
+                    .setDefaultFormatterNameForType(java.util.Calendar.class, "datetime")
+                    .setDefaultFormatterNameForType(Instant.class, "datetime")
+                    .setDefaultFormatterNameForType(ZonedDateTime.class, "datetime")
+                    .setDefaultFormatterNameForType(OffsetDateTime.class, "datetime")
+                    .setDefaultFormatterNameForType(LocalDate.class, "datetime")
+                    .setDefaultFormatterNameForType(LocalDateTime.class, "datetime")
+
+                    // Number formatting
+                    .setFormatter("number", new NumberFormatterFactory("number"))
+                    .setFormatter("integer", new NumberFormatterFactory("integer"))
+                    .setDefaultFormatterNameForType(Integer.class, "number")
+                    .setDefaultFormatterNameForType(Double.class, "number")
+                    .setDefaultFormatterNameForType(Number.class, "number")
+                    .setDefaultFormatterNameForType(CurrencyAmount.class, "number")
+
+                    // Format that returns "to string"
+                    .setFormatter("string", new IdentityFormatterFactory())
+                    .setDefaultFormatterNameForType(String.class, "string")
+                    .setDefaultFormatterNameForType(CharSequence.class, "string")
+
+                    // Register the standard selectors
+                    .setSelector("number", new NumberFormatterFactory("number"))
+                    .setSelector("integer", new NumberFormatterFactory("integer"))
+                    .setSelector("string", new TextSelectorFactory())
+                    .setSelector("icu:gender", new TextSelectorFactory())
+                    .build();
+    // Used when there is no custom registry
+    private static final FunctionLookup STANDARD_LOOKUP = new FunctionLookup(null);
+
+    // The execution plan.
+    private final DeclarationNode[] declarations;
+    // Used for a PatternMessage (null if the message has no pattern)
+    private final PatternNode[] pattern;
+    // Used for a SelectMessage
+    private final SelectorNode[] selectors;
+    private final VariantNode[] variants;
+    // Finds the variant to use, given the keys matched by each selector.
+    private final SelectionIndex selectionIndex;
+    // The slot of each variable name, assigned while compiling
+    private final Map<String, Integer> slotsByName = new LinkedHashMap<>();
+    private final ArgumentSlots argumentSlots;
+    // For each slot, the indices of the declarations of that variable (null if none)
+    private final int[][] declarationsOfSlot;
 
     MFDataModelFormatter(
             MFDataModel.Message dm, Locale locale, MFFunctionRegistry customFunctionRegistry) {
-        this.locale = locale;
-        this.dm = dm;
-        this.customFunctions =
-                customFunctionRegistry == null ? EMPTY_REGISTY : customFunctionRegistry;
-
-        standardFunctions =
-                MFFunctionRegistry.builder()
-                        // Date/time formatting
-                        .setFormatter("datetime", new DateTimeFormatterFactory("datetime"))
-                        .setFormatter("date", new DateTimeFormatterFactory("date"))
-                        .setFormatter("time", new DateTimeFormatterFactory("time"))
-                        .setDefaultFormatterNameForType(Date.class, "datetime")
-                        .setDefaultFormatterNameForType(Calendar.class, "datetime")
-                        .setDefaultFormatterNameForType(java.util.Calendar.class, "datetime")
-
-                        // Number formatting
-                        .setFormatter("number", new NumberFormatterFactory("number"))
-                        .setFormatter("integer", new NumberFormatterFactory("integer"))
-                        .setDefaultFormatterNameForType(Integer.class, "number")
-                        .setDefaultFormatterNameForType(Double.class, "number")
-                        .setDefaultFormatterNameForType(Number.class, "number")
-                        .setDefaultFormatterNameForType(CurrencyAmount.class, "number")
-
-                        // Format that returns "to string"
-                        .setFormatter("string", new IdentityFormatterFactory())
-                        .setDefaultFormatterNameForType(String.class, "string")
-                        .setDefaultFormatterNameForType(CharSequence.class, "string")
-
-                        // Register the standard selectors
-                        .setSelector("number", new NumberFormatterFactory("number"))
-                        .setSelector("integer", new NumberFormatterFactory("integer"))
-                        .setSelector("string", new TextSelectorFactory())
-                        .setSelector("icu:gender", new TextSelectorFactory())
-                        .build();
+        this(dm, locale, customFunctionRegistry, MFLimits.NONE);
     }
 
-    String format(Map<String, Object> arguments) {
-        MFDataModel.Pattern patternToRender = null;
-        if (arguments == null) {
-            arguments = new HashMap<>();
-        }
+    MFDataModelFormatter(MFDataModel.Message dm, Locale locale,
+            MFFunctionRegistry customFunctionRegistry, MFLimits limits) {
+        this.locale = locale;
+        this.functions = FunctionLookup.forCustomRegistry(customFunctionRegistry);
+        this.limits = limits;
 
-        Map<String, Object> variables;
         if (dm instanceof MFDataModel.PatternMessage) {
             MFDataModel.PatternMessage pm = (MFDataModel.PatternMessage) dm;
-            variables = resolveDeclarations(pm.declarations, arguments);
-            patternToRender = pm.pattern;
+            this.declarations = compileDeclarations(pm.declarations);
+            this.pattern = pm.pattern == null ? null : compilePattern(pm.pattern);
+            this.selectors = null;
+            this.variants = null;
+            this.selectionIndex = null;
         } else if (dm instanceof MFDataModel.SelectMessage) {
             MFDataModel.SelectMessage sm = (MFDataModel.SelectMessage) dm;
-            variables = resolveDeclarations(sm.declarations, arguments);
-            patternToRender = findBestMatchingPattern(sm, variables, arguments);
+            this.declarations = compileDeclarations(sm.declarations);
+            this.pattern = null;
+            this.selectors = compileSelectors(sm.selectors);
+            this.variants = compileVariants(sm);
+            this.selectionIndex = compileSelectionIndex(this.variants, this.selectors.length);
         } else {
-            formattingError("");
-            return "ERROR!";
+            throw new IllegalArgumentException("Unknown message type: " + dm);
+        }
+        this.argumentSlots = new ArgumentSlots(slotsByName.keySet().toArray(new String[0]));
+        this.declarationsOfSlot = new int[argumentSlots.size()][];
+        for (int i = 0; i < declarations.length; i++) {
+            int[] previous = declarationsOfSlot[declarations[i].slot];
+            int[] indices =
+                    previous == null ? new int[1] : Arrays.copyOf(previous, previous.length + 1);
+            indices[indices.length - 1] = i;
+            declarationsOfSlot[declarations[i].slot] = indices;
+        }
+    }
+
+    ArgumentSlots getArgumentSlots() {
+        return argumentSlots;
+    }
+
+    String format(Map<String, Object> arguments) {
+        return formatTo(arguments, new StringBuilder()).toString();
+    }
+
+    <A extends Appendable> A formatTo(Map<String, Object> arguments, A result) {
+        return formatTo(newContext(arguments), result);
+    }
+
+    <A extends Appendable> A formatTo(Object[] arguments, A result) {
+        return formatTo(newContext(arguments), result);
+    }
+
+    FormattedMessage formatToMessage(Map<String, Object> arguments) {
+        return formatToMessage(newContext(arguments));
+    }
+
+    FormattedMessage formatToMessage(Object[] arguments) {
+        return formatToMessage(newContext(arguments));
+    }
+
+    String formatToString(FormatContext context, Map<String, Object> arguments) {
+        context.start(argumentSlots, declarations.length,
+                arguments == null ? Collections.emptyMap() : arguments);
+        return formatToString(context);
+    }
+
+    String formatToString(FormatContext context, Object[] arguments) {
+        context.start(argumentSlots, declarations.length, checkArguments(arguments));
+        return formatToString(context);
+    }
+
+    private String formatToString(FormatContext context) {
+        try {
+            StringBuilder output = context.output;
+            output.setLength(0);
+            return formatTo(context, output).toString();
+        } finally {
+            context.finish();
+        }
+    }
+
+    private FormatContext newContext(Map<String, Object> arguments) {
+        FormatContext context = new FormatContext();
+        context.start(argumentSlots, declarations.length,
+                arguments == null ? new HashMap<>() : arguments);
+        return context;
+    }
+
+    private FormatContext newContext(Object[] arguments) {
+        FormatContext context = new FormatContext();
+        context.start(argumentSlots, declarations.length, checkArguments(arguments));
+        return context;
+    }
+
+    private Object[] checkArguments(Object[] arguments) {
+        if (arguments == null) {
+            return argumentSlots.newArguments();
         }
+        if (arguments.length < argumentSlots.size()) {
+            throw new IllegalArgumentException("Expected " + argumentSlots.size()
+                    + " arguments " + argumentSlots.getNames() + ", got " + arguments.length);
+        }
+        return arguments;
+    }
 
+    private <A extends Appendable> A formatTo(FormatContext context, A result) {
+        PatternNode[] patternToRender =
+                selectors == null ? pattern : findBestMatchingPattern(context);
+        try {
+            if (patternToRender == null) {
+                result.append("ERROR!");
+                return result;
+            }
+            Appendable output = limits.maxOutputLength == Integer.MAX_VALUE
+                    ? result
+                    : new LimitedAppendable(result, limits.maxOutputLength);
+            for (PatternNode part : patternToRender) {
+                part.appendTo(output, context);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("problem appending", e);
+        }
+        return result;
+    }
+
+    private FormattedMessage formatToMessage(FormatContext context) {
+        PatternNode[] patternToRender =
+                selectors == null ? pattern : findBestMatchingPattern(context);
+        List<Object> parts = new ArrayList<>();
         if (patternToRender == null) {
-            return "ERROR!";
-        }
-
-        StringBuilder result = new StringBuilder();
-        for (MFDataModel.PatternPart part : patternToRender.parts) {
-            if (part instanceof MFDataModel.StringPart) {
-                MFDataModel.StringPart strPart = (StringPart) part;
-                result.append(strPart.value);
-            } else if (part instanceof MFDataModel.Expression) {
-                FormattedPlaceholder formattedExpression =
-                        formatExpression((Expression) part, variables, arguments);
-                result.append(formattedExpression.getFormattedValue().toString());
+            parts.add("ERROR!");
+        } else {
+            long length = 0;
+            for (PatternNode part : patternToRender) {
+                int from = parts.size();
+                part.addTo(parts, context);
+                if (limits.maxOutputLength != Integer.MAX_VALUE) {
+                    for (int i = from; i < parts.size(); i++) {
+                        Object added = parts.get(i);
+                        length += added instanceof FormattedMessage.Placeholder
+                                ? ((FormattedMessage.Placeholder) added).value.length()
+                                : ((CharSequence) added).length();
+                    }
+                    checkOutputLength(length, limits.maxOutputLength);
+                }
+            }
+        }
+        return new FormattedMessage(parts);
+    }
+
+    // ====================================
+    // Compiling the data model to an execution plan
+    // ====================================
+
+    private DeclarationNode[] compileDeclarations(List<Declaration> declarationList) {
+        List<DeclarationNode> result = new ArrayList<>();
+        if (declarationList != null) {
+            checkLimit(declarationList.size(), limits.maxDeclarations, "declarations");
+            for (Declaration declaration : declarationList) {
+                if (declaration instanceof InputDeclaration) {
+                    InputDeclaration id = (InputDeclaration) declaration;
+                    result.add(new DeclarationNode(
+                            id.name, slotOf(id.name), compileExpression(id.value)));
+                } else if (declaration instanceof LocalDeclaration) {
+                    LocalDeclaration ld = (LocalDeclaration) declaration;
+                    result.add(new DeclarationNode(
+                            ld.name, slotOf(ld.name), compileExpression(ld.value)));
+                }
+                // Ignore unsupported statements
+            }
+        }
+        return result.toArray(new DeclarationNode[0]);
+    }
+
+    private PatternNode[] compilePattern(Pattern patternToCompile) {
+        List<PatternNode> result = new ArrayList<>(patternToCompile.parts.size());
+        for (PatternPart part : patternToCompile.parts) {
+            if (part instanceof StringPart) {
+                result.add(new TextNode(((StringPart) part).value));
             } else if (part instanceof MFDataModel.Markup) {
-                // Ignore
-            } else if (part instanceof MFDataModel.UnsupportedExpression) {
-                // Ignore
+                // No output on markup, for now (we only format to string)
+            } else if (part instanceof UnsupportedExpression) {
+                UnsupportedExpression ue = (UnsupportedExpression) part;
+                result.add(new TextNode(unsupportedExpressionFallback(ue)));
+            } else if (part instanceof Expression) {
+                ExpressionNode expression = compileExpression((Expression) part);
+                if (expression instanceof FunctionCallNode) {
+                    expression = ((FunctionCallNode) expression).formatConstant();
+                }
+                result.add(expression);
             } else {
                 formattingError("Unknown part type: " + part);
             }
         }
-        return result.toString();
+        return mergeConstants(result);
+    }
+
+    /**
+     * Merges the consecutive text and constant expressions in a single text node,
+     * so that the pattern {@code Hello {|Acme Corp|}, } is one append when formatting.
+     */
+    private static PatternNode[] mergeConstants(List<PatternNode> nodes) {
+        List<PatternNode> result = new ArrayList<>(nodes.size());
+        int i = 0;
+        while (i < nodes.size()) {
+            int end = i;
+            while (end < nodes.size() && constantText(nodes.get(end)) != null) {
+                end++;
+            }
+            if (end - i < 2) {
+                result.add(nodes.get(i));
+                i++;
+                continue;
+            }
+            StringBuilder text = new StringBuilder();
+            for (int j = i; j < end; j++) {
+                text.append(constantText(nodes.get(j)));
+            }
+            PatternNode[] merged = nodes.subList(i, end).toArray(new PatternNode[0]);
+            result.add(new TextNode(text.toString(), merged));
+            i = end;
+        }
+        return result.toArray(new PatternNode[0]);
+    }
+
+    // The text of a node that always formats to the same string, or null
+    private static String constantText(PatternNode node) {
+        if (node instanceof TextNode) {
+            return ((TextNode) node).text;
+        }
+        if (node instanceof ConstantNode) {
+            return ((ConstantNode) node).text;
+        }
+        return null;
+    }
+
+    private ExpressionNode compileExpression(Expression expression) {
+        Annotation annotation;
+        String varName = null;
+        Object literalValue = null;
+        String fallbackString;
+
+        if (expression instanceof VariableExpression) {
+            VariableExpression ve = (VariableExpression) expression;
+            annotation = ve.annotation;
+            varName = ve.arg.name;
+            fallbackString = "{$" + ve.arg.name + "}";
+        } else if (expression instanceof FunctionExpression) { // Function without arguments
+            FunctionExpression fe = (FunctionExpression) expression;
+            annotation = fe.annotation;
+            fallbackString = "{:" + fe.annotation.name + "}";
+        } else if (expression instanceof LiteralExpression) {
+            LiteralExpression le = (LiteralExpression) expression;
+            annotation = le.annotation;
+            literalValue = resolveLiteral(le.arg);
+            fallbackString = "{|" + le.arg.value + "|}";
+        } else if (expression instanceof MFDataModel.Markup) {
+            // No output on markup, for now (we only format to string)
+            return new ConstantNode(expression, "");
+        } else if (expression instanceof UnsupportedExpression) {
+            return new ConstantNode(
+                    expression, unsupportedExpressionFallback((UnsupportedExpression) expression));
+        } else {
+            formattingError("Unknown expression type: " + expression);
+            return null;
+        }
+
+        if (annotation instanceof UnsupportedAnnotation) {
+            // We don't know how to format unsupported annotations
+            return new ConstantNode(expression, fallbackString);
+        }
+        FunctionAnnotation fa = (FunctionAnnotation) annotation;
+        return new FunctionCallNode(
+                expression,
+                varName,
+                varName == null ? -1 : slotOf(varName),
+                literalValue,
+                fa == null ? null : fa.name,
+                fa == null ? null : getFormatterFactory(fa.name),
+                fa == null ? NO_OPTIONS : compileOptions(fa.options),
+                fallbackString);
+    }
+
+    private static final OptionNode[] NO_OPTIONS = {};
+    // For the expressions formatted at build time, that use no variables
+    private static final ArgumentSlots NO_SLOTS = new ArgumentSlots(new String[0]);
+
+    private OptionNode[] compileOptions(Map<String, Option> options) {
+        checkLimit(options.size(), limits.maxOptions, "options");
+        OptionNode[] result = new OptionNode[options.size()];
+        int i = 0;
+        for (Option option : options.values()) {
+            if (option.value instanceof VariableRef) {
+                String varName = ((VariableRef) option.value).name;
+                result[i++] = new OptionNode(option.name, varName, slotOf(varName), null);
+            } else {
+                result[i++] =
+                        new OptionNode(option.name, null, -1, resolveLiteralOrValue(option.value));
+            }
+        }
+        return result;
+    }
+
+    // The slot of a variable, assigned on first use
+    private int slotOf(String varName) {
+        Integer result = slotsByName.get(varName);
+        if (result == null) {
+            result = slotsByName.size();
+            slotsByName.put(varName, result);
+        }
+        return result;
+    }
+
+    private SelectorNode[] compileSelectors(List<Expression> selectorList) {
+        checkLimit(selectorList.size(), limits.maxSelectors, "selectors");
+        SelectorNode[] result = new SelectorNode[selectorList.size()];
+        for (int i = 0; i < result.length; i++) {
+            Expression sel = selectorList.get(i);
+            String functionName = null;
+            Annotation annotation = null;
+            if (sel instanceof VariableExpression) {
+                annotation = ((VariableExpression) sel).annotation;
+            } else if (sel instanceof LiteralExpression) {
+                annotation = ((LiteralExpression) sel).annotation;
+            } else if (sel instanceof FunctionExpression) {
+                annotation = ((FunctionExpression) sel).annotation;
+            }
+            if (annotation instanceof FunctionAnnotation) {
+                functionName = ((FunctionAnnotation) annotation).name;
+            }
+            result[i] =
+                    new SelectorNode(
+                            compileExpression(sel), functionName, getSelectorFactory(functionName));
+        }
+        return result;
+    }
+
+    private VariantNode[] compileVariants(SelectMessage sm) {
+        checkLimit(sm.variants.size(), limits.maxVariants, "variants");
+        checkLimit((long) sm.variants.size() * sm.selectors.size(), limits.maxSelectionSize,
+                "selectors multiplied by variants");
+        VariantNode[] result = new VariantNode[sm.variants.size()];
+        for (int i = 0; i < result.length; i++) {
+            Variant variant = sm.variants.get(i);
+            String[] keys = new String[variant.keys.size()];
+            for (int k = 0; k < keys.length; k++) {
+                LiteralOrCatchallKey key = variant.keys.get(k);
+                if (key instanceof CatchallKey) {
+                    keys[k] = null;
+                } else if (key instanceof Literal) {
+                    keys[k] = ((Literal) key).value;
+                } else {
+                    formattingError("Literal expected, but got " + key);
+                }
+            }
+            result[i] = new VariantNode(keys, compilePattern(variant.value));
+        }
+        return result;
     }
 
-    private Pattern findBestMatchingPattern(
-            SelectMessage sm, Map<String, Object> variables, Map<String, Object> arguments) {
-        Pattern patternToRender = null;
+    private static SelectionIndex compileSelectionIndex(VariantNode[] variants, int count) {
+        String[][] variantKeys = new String[variants.length][];
+        for (int i = 0; i < variants.length; i++) {
+            variantKeys[i] = variants[i].keys;
+        }
+        return new SelectionIndex(variantKeys, count);
+    }
 
+    private static String unsupportedExpressionFallback(UnsupportedExpression ue) {
+        char sigil = ue.annotation.source.charAt(0);
+        return "{" + sigil + "}";
+    }
+
+    // ====================================
+    // Selection
+    // ====================================
+
+    private PatternNode[] findBestMatchingPattern(FormatContext context) {
         // ====================================
         // spec: ### Resolve Selectors
         // ====================================
 
-        // Collect all the selector functions in an array, to reuse
-        List<Expression> selectors = sm.selectors;
         // spec: Let `res` be a new empty list of resolved values that support selection.
-        List<ResolvedSelector> res = new ArrayList<>(selectors.size());
+        // (the lists are scratch space owned by the context, reused between calls)
+        List<ResolvedSelector> res = context.resolvedSelectors;
+        res.clear();
         // spec: For each _selector_ `sel`, in source order,
-        for (Expression sel : selectors) {
+        for (SelectorNode sel : selectors) {
             // spec: Let `rv` be the resolved value of `sel`.
-            FormattedPlaceholder fph = formatExpression(sel, variables, arguments);
-            String functionName = null;
-            Object argument = null;
-            Map<String, Object> options = new HashMap<>();
-            if (fph.getInput() instanceof ResolvedExpression) {
-                ResolvedExpression re = (ResolvedExpression) fph.getInput();
-                argument = re.argument;
-                functionName = re.functionName;
-                options.putAll(re.options);
-            } else if (fph.getInput() instanceof MFDataModel.VariableExpression) {
-                MFDataModel.VariableExpression ve = (MFDataModel.VariableExpression) fph.getInput();
-                argument = resolveLiteralOrVariable(ve.arg, variables, arguments);
-                if (ve.annotation instanceof FunctionAnnotation) {
-                    functionName = ((FunctionAnnotation) ve.annotation).name;
-                }
-            } else if (fph.getInput() instanceof LiteralExpression) {
-                LiteralExpression le = (LiteralExpression) fph.getInput();
-                argument = le.arg;
-                if (le.annotation instanceof FunctionAnnotation) {
-                    functionName = ((FunctionAnnotation) le.annotation).name;
-                }
-            }
-            SelectorFactory funcFactory = standardFunctions.getSelector(functionName);
-            if (funcFactory == null) {
-                funcFactory = customFunctions.getSelector(functionName);
-            }
             // spec: If selection is supported for `rv`:
-            if (funcFactory != null) {
-                Selector selectorFunction = funcFactory.createSelector(locale, options);
-                ResolvedSelector rs = new ResolvedSelector(argument, options, selectorFunction);
-                // spec: Append `rv` as the last element of the list `res`.
-                res.add(rs);
-            } else {
-                throw new IllegalArgumentException("Unknown selector type: " + functionName);
-            }
-        }
-
-        // This should not be possible, we added one function for each selector,
-        // or we have thrown an exception.
-        // But just in case someone removes the throw above?
-        if (res.size() != selectors.size()) {
-            throw new IllegalArgumentException(
-                    "Something went wrong, not enough selector functions, "
-                            + res.size() + " vs. " + selectors.size());
+            // spec: Append `rv` as the last element of the list `res`.
+            res.add(sel.resolve(context));
         }
 
         // ====================================
@@ -194,28 +523,16 @@ class MFDataModelFormatter {
         // ====================================
 
         // spec: Let `pref` be a new empty list of lists of strings.
-        List<List<String>> pref = new ArrayList<>();
+        List<List<String>> pref = context.preferences;
+        pref.clear();
         // spec: For each index `i` in `res`:
         for (int i = 0; i < res.size(); i++) {
             // spec: Let `keys` be a new empty list of strings.
-            List<String> keys = new ArrayList<>();
             // spec: For each _variant_ `var` of the message:
-            for (Variant var : sm.variants) {
-                // spec: Let `key` be the `var` key at position `i`.
-                LiteralOrCatchallKey key = var.keys.get(i);
-                // spec: If `key` is not the catch-all key `'*'`:
-                if (key instanceof CatchallKey) {
-                    keys.add("*");
-                } else if (key instanceof Literal) {
-                    // spec: Assert that `key` is a _literal_.
-                    // spec: Let `ks` be the resolved value of `key`.
-                    String ks = ((Literal) key).value;
-                    // spec: Append `ks` as the last element of the list `keys`.
-                    keys.add(ks);
-                } else {
-                    formattingError("Literal expected, but got " + key);
-                }
-            }
+            // spec: Let `key` be the `var` key at position `i`.
+            // spec: Append `ks` as the last element of the list `keys`.
+            // (precomputed when compiling the message, without duplicates)
+            List<String> keys = selectionIndex.getKeys(i);
             // spec: Let `rv` be the resolved value at index `i` of `res`.
             ResolvedSelector rv = res.get(i);
             // spec: Let `matches` be the result of calling the method MatchSelectorKeys(`rv`, `keys`)
@@ -224,147 +541,19 @@ class MFDataModelFormatter {
             pref.add(matches);
         }
 
-        // ====================================
         // spec: ### Filter Variants
-        // ====================================
-
-        // spec: Let `vars` be a new empty list of _variants_.
-        List<Variant> vars = new ArrayList<>();
-        // spec: For each _variant_ `var` of the message:
-        for (Variant var : sm.variants) {
-            // spec: For each index `i` in `pref`:
-            int found = 0;
-            for (int i = 0; i < pref.size(); i++) {
-                // spec: Let `key` be the `var` key at position `i`.
-                LiteralOrCatchallKey key = var.keys.get(i);
-                // spec: If `key` is the catch-all key `'*'`:
-                if (key instanceof CatchallKey) {
-                    // spec: Continue the inner loop on `pref`.
-                    found++;
-                    continue;
-                }
-                // spec: Assert that `key` is a _literal_.
-                if (!(key instanceof Literal)) {
-                    formattingError("Literal expected");
-                }
-                // spec: Let `ks` be the resolved value of `key`.
-                String ks = ((Literal) key).value;
-                // spec: Let `matches` be the list of strings at index `i` of `pref`.
-                List<String> matches = pref.get(i);
-                // spec: If `matches` includes `ks`:
-                if (matches.contains(ks)) {
-                    // spec: Continue the inner loop on `pref`.
-                    found++;
-                    continue;
-                } else {
-                    // spec: Else:
-                    // spec: Continue the outer loop on message _variants_.
-                    break;
-                }
-            }
-            if (found == pref.size()) {
-                // spec: Append `var` as the last element of the list `vars`.
-                vars.add(var);
-            }
-        }
-
-        // ====================================
         // spec: ### Sort Variants
-        // ====================================
-        // spec: Let `sortable` be a new empty list of (integer, _variant_) tuples.
-        List<IntVarTuple> sortable = new ArrayList<>();
-        // spec: For each _variant_ `var` of `vars`:
-        for (Variant var : vars) {
-            // spec: Let `tuple` be a new tuple (-1, `var`).
-            IntVarTuple tuple = new IntVarTuple(-1, var);
-            // spec: Append `tuple` as the last element of the list `sortable`.
-            sortable.add(tuple);
-        }
-        // spec: Let `len` be the integer count of items in `pref`.
-        int len = pref.size();
-        // spec: Let `i` be `len` - 1.
-        int i = len - 1;
-        // spec: While `i` >= 0:
-        while (i >= 0) {
-            // spec: Let `matches` be the list of strings at index `i` of `pref`.
-            List<String> matches = pref.get(i);
-            // spec: Let `minpref` be the integer count of items in `matches`.
-            int minpref = matches.size();
-            // spec: For each tuple `tuple` of `sortable`:
-            for (IntVarTuple tuple : sortable) {
-                // spec: Let `matchpref` be an integer with the value `minpref`.
-                int matchpref = minpref;
-                // spec: Let `key` be the `tuple` _variant_ key at position `i`.
-                LiteralOrCatchallKey key = tuple.variant.keys.get(i);
-                // spec: If `key` is not the catch-all key `'*'`:
-                if (!(key instanceof CatchallKey)) {
-                    // spec: Assert that `key` is a _literal_.
-                    if (!(key instanceof Literal)) {
-                        formattingError("Literal expected");
-                    }
-                    // spec: Let `ks` be the resolved value of `key`.
-                    String ks = ((Literal) key).value;
-                    // spec: Let `matchpref` be the integer position of `ks` in `matches`.
-                    matchpref = matches.indexOf(ks);
-                }
-                // spec: Set the `tuple` integer value as `matchpref`.
-                tuple.integer = matchpref;
-            }
-            // spec: Set `sortable` to be the result of calling the method `SortVariants(sortable)`.
-            sortable.sort(MFDataModelFormatter::sortVariants);
-            // spec: Set `i` to be `i` - 1.
-            i--;
-        }
-        // spec: Let `var` be the _variant_ element of the first element of `sortable`.
-        IntVarTuple var = sortable.get(0);
-        // spec: Select the _pattern_ of `var`.
-        patternToRender = var.variant.value;
-
-        // And should do that only once, when building the data model.
-        if (patternToRender == null) {
+        // Done by the index, see SelectionIndex.selectBySpec for the literal spec algorithm.
+        int selected = selectionIndex.select(
+                pref, context.selectionBits(selectors.length, selectionIndex.words()));
+        if (selected < 0) {
             // If there was a case with all entries in the keys `*` this should not happen
             throw new IllegalArgumentException(
                     "The selection went wrong, cannot select any option.");
         }
-
-        return patternToRender;
-    }
-
-    /* spec:
-     * `SortVariants` is a method whose single argument is
-     * a list of (integer, _variant_) tuples.
-     * It returns a list of (integer, _variant_) tuples.
-     * Any implementation of `SortVariants` is acceptable
-     * as long as it satisfies the following requirements:
-     *
-     * 1. Let `sortable` be an arbitrary list of (integer, _variant_) tuples.
-     * 1. Let `sorted` be `SortVariants(sortable)`.
-     * 1. `sorted` is the result of sorting `sortable` using the following comparator:
-     *    1. `(i1, v1)` <= `(i2, v2)` if and only if `i1 <= i2`.
-     * 1. The sort is stable (pairs of tuples from `sortable` that are equal
-     *    in their first element have the same relative order in `sorted`).
-     */
-    private static int sortVariants(IntVarTuple o1, IntVarTuple o2) {
-        int result = Integer.compare(o1.integer, o2.integer);
-        if (result != 0) {
-            return result;
-        }
-        List<LiteralOrCatchallKey> v1 = o1.variant.keys;
-        List<LiteralOrCatchallKey> v2 = o1.variant.keys;
-        if (v1.size() != v2.size()) {
-            formattingError("The number of keys is not equal.");
-        }
-        for (int i = 0; i < v1.size(); i++) {
-            LiteralOrCatchallKey k1 = v1.get(i);
-            LiteralOrCatchallKey k2 = v2.get(i);
-            String s1 = k1 instanceof Literal ? ((Literal) k1).value : "*";
-            String s2 = k2 instanceof Literal ? ((Literal) k2).value : "*";
-            int cmp = s1.compareTo(s2);
-            if (cmp != 0) {
-                return cmp;
-            }
-        }
-        return 0;
+        // spec: Let `var` be the _variant_ element of the first element of `sortable`.
+        // spec: Select the _pattern_ of `var`.
+        return variants[selected].pattern;
     }
 
     /**
@@ -382,7 +571,7 @@ class MFDataModelFormatter {
         return rv.selectorFunction.matches(rv.argument, keys, rv.options);
     }
 
-    private static class ResolvedSelector {
+    static class ResolvedSelector {
         final Object argument;
         final Map<String, Object> options;
         final Selector selectorFunction;
@@ -390,7 +579,7 @@ class MFDataModelFormatter {
         public ResolvedSelector(
                 Object argument, Map<String, Object> options, Selector selectorFunction) {
             this.argument = argument;
-            this.options = new HashMap<>(options);
+            this.options = options;
             this.selectorFunction = selectorFunction;
         }
     }
@@ -399,149 +588,255 @@ class MFDataModelFormatter {
         throw new IllegalArgumentException(message);
     }
 
-    private FormatterFactory getFormattingFunctionFactoryByName(
-            Object toFormat, String functionName) {
-        // Get a function name from the type of the object to format
-        if (functionName == null || functionName.isEmpty()) {
-            if (toFormat == null) {
-                // The object to format is null, and no function provided.
-                return null;
-            }
-            Class<?> clazz = toFormat.getClass();
-            functionName = standardFunctions.getDefaultFormatterNameForType(clazz);
-            if (functionName == null) {
-                functionName = customFunctions.getDefaultFormatterNameForType(clazz);
-            }
-            if (functionName == null) {
-                throw new IllegalArgumentException(
-                        "Object to format without a function, and unknown type: "
-                                + toFormat.getClass().getName());
-            }
+    private static void checkLimit(long count, int limit, String what) {
+        if (count > limit) {
+            formattingError("Too many " + what + ", the limit is " + limit);
+        }
+    }
+
+    private static void checkOutputLength(long length, int limit) {
+        if (length > limit) {
+            formattingError("The formatted message is longer than " + limit);
         }
+    }
+
+    /** Counts the chars appended, and fails before going over the limit. */
+    private static final class LimitedAppendable implements Appendable {
+        private final Appendable output;
+        private final int limit;
+        private long length;
 
-        FormatterFactory func = standardFunctions.getFormatter(functionName);
-        if (func == null) {
-            func = customFunctions.getFormatter(functionName);
+        LimitedAppendable(Appendable output, int limit) {
+            this.output = output;
+            this.limit = limit;
+        }
+
+        private void add(int count) {
+            length += count;
+            checkOutputLength(length, limit);
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            add(csq == null ? 4 : csq.length()); // "null"
+            output.append(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            add(end - start);
+            output.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            add(1);
+            output.append(c);
+            return this;
         }
-        return func;
     }
 
-    private static Object resolveLiteralOrVariable(
-            LiteralOrVariableRef value,
-            Map<String, Object> localVars,
-            Map<String, Object> arguments) {
-        if (value instanceof Literal) {
-            String val = ((Literal) value).value;
-            Number nr = OptUtils.asNumber(val);
-            if (nr != null) {
-                return nr;
+    // ====================================
+    // Function lookup
+    // ====================================
+
+    private FormatterFactory getFormatterFactory(String functionName) {
+        return functions.formatters.get(functionName);
+    }
+
+    private SelectorFactory getSelectorFactory(String functionName) {
+        return functions.selectors.get(functionName);
+    }
+
+    // Get a function name from the type of the object to format
+    private FormatterFactory getFormatterFactoryForType(Object toFormat) {
+        if (toFormat == null) {
+            // The object to format is null, and no function provided.
+            return null;
+        }
+        Class<?> clazz = toFormat.getClass();
+        String functionName = STANDARD_FUNCTIONS.getDefaultFormatterNameForType(clazz);
+        if (functionName == null && functions.customFunctions != null) {
+            functionName = functions.customFunctions.getDefaultFormatterNameForType(clazz);
+        }
+        if (functionName == null) {
+            throw new IllegalArgumentException(
+                    "Object to format without a function, and unknown type: "
+                            + toFormat.getClass().getName());
+        }
+        return getFormatterFactory(functionName);
+    }
+
+    /**
+     * The standard functions merged with the ones from a custom registry, so that
+     * looking up a function by name is a single map access.
+     *
+     * <p>The standard functions take precedence over the custom ones with the same name.
+     * Registries are immutable, so the merged lookup is computed once per custom registry
+     * and cached on it.</p>
+     */
+    static final class FunctionLookup {
+        final Map<String, FormatterFactory> formatters;
+        final Map<String, SelectorFactory> selectors;
+        // Only used for the type to function name mapping, null if there is no custom registry
+        final MFFunctionRegistry customFunctions;
+
+        private FunctionLookup(MFFunctionRegistry customFunctions) {
+            this.customFunctions = customFunctions;
+            Map<String, FormatterFactory> formatterMap = new HashMap<>();
+            Map<String, SelectorFactory> selectorMap = new HashMap<>();
+            if (customFunctions != null) {
+                for (String name : customFunctions.getFormatterNames()) {
+                    formatterMap.put(name, customFunctions.getFormatter(name));
+                }
+                for (String name : customFunctions.getSelectorNames()) {
+                    selectorMap.put(name, customFunctions.getSelector(name));
+                }
             }
-            return val;
-        } else if (value instanceof VariableRef) {
-            String varName = ((VariableRef) value).name;
-            Object val = localVars.get(varName);
-            if (val == null) {
-                val = localVars.get(varName);
+            // The standard functions win
+            for (String name : STANDARD_FUNCTIONS.getFormatterNames()) {
+                formatterMap.put(name, STANDARD_FUNCTIONS.getFormatter(name));
             }
-            if (val == null) {
-                val = arguments.get(varName);
+            for (String name : STANDARD_FUNCTIONS.getSelectorNames()) {
+                selectorMap.put(name, STANDARD_FUNCTIONS.getSelector(name));
             }
-            return val;
+            this.formatters = formatterMap;
+            this.selectors = selectorMap;
+        }
+
+        static FunctionLookup forCustomRegistry(MFFunctionRegistry customFunctions) {
+            // Same as the standard functions, so all the messages without custom functions
+            // share the lookup
+            if (customFunctions == null || customFunctions.isEmpty()) {
+                return STANDARD_LOOKUP;
+            }
+            // Benign race: two threads might both compute it, but the results are equivalent.
+            FunctionLookup result = customFunctions.mergedWithStandard;
+            if (result == null) {
+                result = new FunctionLookup(customFunctions);
+                customFunctions.mergedWithStandard = result;
+            }
+            return result;
         }
-        return value;
     }
 
-    private static Map<String, Object> convertOptions(
-            Map<String, Option> options,
-            Map<String, Object> localVars,
-            Map<String, Object> arguments) {
-        Map<String, Object> result = new HashMap<>();
-        for (Option option : options.values()) {
-            result.put(option.name, resolveLiteralOrVariable(option.value, localVars, arguments));
+    // ====================================
+    // Resolving values
+    // ====================================
+
+    private static Object resolveLiteral(Literal literal) {
+        // Parsed once, when the literal was created
+        return literal.number != null ? literal.number : literal.value;
+    }
+
+    private static Object resolveLiteralOrValue(LiteralOrVariableRef value) {
+        if (value instanceof Literal) {
+            return resolveLiteral((Literal) value);
         }
-        return result;
+        return value;
     }
 
     /**
-     * Formats an expression.
+     * Returns the value of a variable: the value of the last declaration visible from the
+     * current point that resolved successfully, otherwise the argument with that name.
      *
-     * @param expression the expression to format
-     * @param variables local variables, created from declarations (`.input` and `.local`)
-     * @param arguments the arguments passed at runtime to be formatted (`mf.format(arguments)`)
+     * <p>The declarations are resolved the first time they are needed, and the result
+     * is kept in the context until the end of the formatting call.
+     * The value of a declaration is a {@link ResolvedValue} (not formatted yet),
+     * or a {@link FormattedPlaceholder} with the fallback string.</p>
      */
-    private FormattedPlaceholder formatExpression(
-            Expression expression, Map<String, Object> variables, Map<String, Object> arguments) {
-
-        Annotation annotation = null; // function name
-        String functionName = null;
-        Object toFormat = null;
-        Map<String, Object> options = new HashMap<>();
-        String fallbackString = "{\uFFFD}";
-
-        if (expression instanceof MFDataModel.VariableExpression) {
-            MFDataModel.VariableExpression varPart = (MFDataModel.VariableExpression) expression;
-            fallbackString = "{$" + varPart.arg.name + "}";
-            annotation = varPart.annotation; // function name & options
-            Object resolved = resolveLiteralOrVariable(varPart.arg, variables, arguments);
-            if (resolved instanceof FormattedPlaceholder) {
-                Object input = ((FormattedPlaceholder) resolved).getInput();
-                if (input instanceof ResolvedExpression) {
-                    ResolvedExpression re = (ResolvedExpression) input;
-                    toFormat = re.argument;
-                    functionName = re.functionName;
-                    options.putAll(re.options);
-                } else {
-                    toFormat = input;
+    private Object getVariable(FormatContext context, int slot) {
+        int[] declared = declarationsOfSlot[slot];
+        if (declared != null) {
+            for (int i = declared.length - 1; i >= 0; i--) {
+                if (declared[i] < context.visibleDeclarations) {
+                    Object value = resolveDeclaration(context, declared[i]);
+                    if (value != FAILED) {
+                        return value;
+                    }
                 }
-            } else {
-                toFormat = resolved;
             }
-        } else if (expression
-                instanceof MFDataModel.FunctionExpression) { // Function without arguments
-            MFDataModel.FunctionExpression fe = (FunctionExpression) expression;
-            fallbackString = "{:" + fe.annotation.name + "}";
-            annotation = fe.annotation;
-        } else if (expression instanceof MFDataModel.LiteralExpression) {
-            MFDataModel.LiteralExpression le = (LiteralExpression) expression;
-            annotation = le.annotation;
-            fallbackString = "{|" + le.arg.value + "|}";
-            toFormat = resolveLiteralOrVariable(le.arg, variables, arguments);
-        } else if (expression instanceof MFDataModel.Markup) {
-            // No output on markup, for now (we only format to string)
-            return new FormattedPlaceholder(expression, new PlainStringFormattedValue(""));
-        } else {
-            UnsupportedExpression ue = (UnsupportedExpression) expression;
-            char sigil = ue.annotation.source.charAt(0);
-            return new FormattedPlaceholder(
-                    expression, new PlainStringFormattedValue("{" + sigil + "}"));
-        }
-
-        if (annotation instanceof FunctionAnnotation) {
-            FunctionAnnotation fa = (FunctionAnnotation) annotation;
-            if (functionName != null && !functionName.equals(fa.name)) {
-                formattingError(
-                        "invalid function overrides, '" + functionName + "' <> '" + fa.name + "'");
-            }
-            functionName = fa.name;
-            Map<String, Object> newOptions = convertOptions(fa.options, variables, arguments);
-            options.putAll(newOptions);
-        } else if (annotation instanceof UnsupportedAnnotation) {
-            // We don't know how to format unsupported annotations
-            return new FormattedPlaceholder(expression, new PlainStringFormattedValue(fallbackString));
         }
+        return context.arguments[slot];
+    }
 
-        FormatterFactory funcFactory = getFormattingFunctionFactoryByName(toFormat, functionName);
-        if (funcFactory == null) {
-            return new FormattedPlaceholder(expression, new PlainStringFormattedValue(fallbackString));
+    /**
+     * Same as {@link #getVariable}, but the local variables are formatted.
+     * Used where the value is passed to functions (options, selectors).
+     */
+    private Object getFormattedVariable(FormatContext context, int slot) {
+        Object result = getVariable(context, slot);
+        return result instanceof ResolvedValue ? ((ResolvedValue) result).format() : result;
+    }
+
+    private Object resolveDeclaration(FormatContext context, int index) {
+        Object result = context.locals[index];
+        if (result != null) {
+            return result;
+        }
+        int visible = context.visibleDeclarations;
+        // A declaration only sees the declarations before it
+        context.visibleDeclarations = index;
+        try {
+            result = declarations[index].value.resolveValue(context);
+        } catch (Exception e) {
+            // There it no need to succeed in solving everything.
+            // For example there is no problem is `$b` is not defined below:
+            // .local $a = {$b :number}
+            // {{ Hello {$user}! }}
+            // It's OK to ignore the failure, the argument with the same name is used instead.
+            result = FAILED;
+        } finally {
+            context.visibleDeclarations = visible;
         }
-        Formatter ff = funcFactory.createFormatter(locale, options);
-        String res = ff.formatToString(toFormat, arguments);
-        if (res == null) {
-            res = fallbackString;
+        context.locals[index] = result;
+        return result;
+    }
+
+    // The value of a declaration that failed to resolve
+    private static final Object FAILED = new Object();
+
+    /**
+     * The value of a declaration: a function call with everything resolved, but not formatted.
+     * It is formatted only if needed, and only once.
+     */
+    private static class ResolvedValue {
+        final ResolvedExpression expression;
+        private final Formatter formatter;
+        private final Map<String, Object> variableOptions;
+        private final String fallbackString;
+        private FormattedPlaceholder formatted;
+
+        ResolvedValue(
+                ResolvedExpression expression,
+                Formatter formatter,
+                Map<String, Object> variableOptions,
+                String fallbackString) {
+            this.expression = expression;
+            this.formatter = formatter;
+            this.variableOptions = variableOptions;
+            this.fallbackString = fallbackString;
         }
 
-        ResolvedExpression resExpression = new ResolvedExpression(toFormat, functionName, options);
-        return new FormattedPlaceholder(resExpression, new PlainStringFormattedValue(res));
+        FormattedPlaceholder format() {
+            if (formatted == null) {
+                FormattedPlaceholder result;
+                try {
+                    result = formatter.format(expression.argument, variableOptions);
+                } catch (RuntimeException e) {
+                    // Too late to ignore the declaration, the fallback is used instead
+                    result = null;
+                }
+                FormattedValue value =
+                        result == null
+                                ? new PlainStringFormattedValue(fallbackString)
+                                : result.getFormattedValue();
+                formatted = new FormattedPlaceholder(expression, value);
+            }
+            return formatted;
+        }
     }
 
     static class ResolvedExpression implements Expression {
@@ -557,45 +852,655 @@ class MFDataModelFormatter {
         }
     }
 
-    private Map<String, Object> resolveDeclarations(
-            List<MFDataModel.Declaration> declarations, Map<String, Object> arguments) {
-        Map<String, Object> variables = new HashMap<>();
-        String name;
-        Expression value;
-        if (declarations != null) {
-            for (Declaration declaration : declarations) {
-                if (declaration instanceof InputDeclaration) {
-                    name = ((InputDeclaration) declaration).name;
-                    value = ((InputDeclaration) declaration).value;
-                } else if (declaration instanceof LocalDeclaration) {
-                    name = ((LocalDeclaration) declaration).name;
-                    value = ((LocalDeclaration) declaration).value;
+    // ====================================
+    // The nodes of the execution plan
+    // ====================================
+
+    /** Something that can be part of the output: text, or an expression (placeholder). */
+    private abstract static class PatternNode {
+        /**
+         * Appends the formatted node to the result.
+         *
+         * @param result where to append the formatted node
+         * @param context the arguments passed at runtime and the local variables
+         */
+        abstract void appendTo(Appendable result, FormatContext context) throws IOException;
+
+        /**
+         * Adds the formatted node to the parts of a {@link FormattedMessage}.
+         *
+         * @param parts where to add the formatted node
+         * @param context the arguments passed at runtime and the local variables
+         */
+        abstract void addTo(List<Object> parts, FormatContext context);
+    }
+
+    /** Plain text, output "as is". */
+    private static class TextNode extends PatternNode {
+        private final String text;
+        // The text and constant nodes merged into this one, null if there are none.
+        // A FormattedMessage still gets the separate parts.
+        private final PatternNode[] merged;
+
+        TextNode(String text) {
+            this(text, null);
+        }
+
+        TextNode(String text, PatternNode[] merged) {
+            this.text = text;
+            this.merged = merged;
+        }
+
+        @Override
+        void appendTo(Appendable result, FormatContext context) throws IOException {
+            result.append(text);
+        }
+
+        @Override
+        void addTo(List<Object> parts, FormatContext context) {
+            if (merged == null) {
+                parts.add(text);
+            } else {
+                for (PatternNode node : merged) {
+                    node.addTo(parts, context);
+                }
+            }
+        }
+    }
+
+    private abstract static class ExpressionNode extends PatternNode {
+        /**
+         * Formats an expression.
+         *
+         * @param context the arguments passed at runtime and the local variables
+         * @return the formatted placeholder
+         */
+        abstract FormattedPlaceholder resolve(FormatContext context);
+
+        /**
+         * Resolves an expression used as the value of a declaration.
+         * Same as {@link #resolve}, but the formatting can be deferred.
+         *
+         * @param context the arguments passed at runtime and the local variables
+         * @return a {@link ResolvedValue} or a {@link FormattedPlaceholder}
+         */
+        Object resolveValue(FormatContext context) {
+            return resolve(context);
+        }
+
+        @Override
+        void appendTo(Appendable result, FormatContext context) throws IOException {
+            appendValue(resolve(context).getFormattedValue(), result);
+        }
+
+        static void appendValue(FormattedValue value, Appendable result) throws IOException {
+            try {
+                // Appends the formatted value directly, without converting it to a string first
+                value.appendTo(result);
+            } catch (ICUUncheckedIOException e) {
+                // ICU's FormattedValue implementations wrap the IOException
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        void addTo(List<Object> parts, FormatContext context) {
+            FormattedValue value = resolve(context).getFormattedValue();
+            parts.add(new FormattedMessage.Placeholder(argumentName(), value));
+        }
+
+        /** The name of the variable formatted by this expression, or null if there is none. */
+        String argumentName() {
+            return null;
+        }
+    }
+
+    /**
+     * An expression that always formats to the same thing (markup, unsupported annotations,
+     * standard functions on literals).
+     */
+    private static class ConstantNode extends ExpressionNode {
+        private final FormattedPlaceholder value;
+        private final String text;
+
+        ConstantNode(Expression expression, String value) {
+            this(new FormattedPlaceholder(expression, new PlainStringFormattedValue(value)));
+        }
+
+        ConstantNode(FormattedPlaceholder value) {
+            this.value = value;
+            this.text = value.getFormattedValue().toString();
+        }
+
+        @Override
+        FormattedPlaceholder resolve(FormatContext context) {
+            return value;
+        }
+
+        @Override
+        void appendTo(Appendable result, FormatContext context) throws IOException {
+            result.append(text);
+        }
+    }
+
+    /** An option, with the value either a variable reference or an already resolved literal. */
+    private static class OptionNode {
+        final String name;
+        final String varName;
+        final int varSlot;
+        final Object literalValue;
+
+        OptionNode(String name, String varName, int varSlot, Object literalValue) {
+            this.name = name;
+            this.varName = varName;
+            this.varSlot = varSlot;
+            this.literalValue = literalValue;
+        }
+    }
+
+    /**
+     * The bound function call: {@code {$var :func opt=...}}, {@code {|literal| :func opt=...}},
+     * {@code {:func opt=...}}, or just {@code {$var}} / {@code {|literal|}}.
+     */
+    private class FunctionCallNode extends ExpressionNode {
+        private final Expression expression;
+        private final String varName;
+        private final int varSlot;
+        private final Object literalValue;
+        private final String functionName;
+        private final FormatterFactory factory;
+        private final OptionNode[] options;
+        // The names of the options, and of the ones with a variable as value (the indices
+        // in options). The keys of the OptionMap created for each call.
+        private final String[] optionNames;
+        private final String[] variableOptionNames;
+        private final int[] variableOptionIndices;
+        private final String fallbackString;
+        // All the options, if they are all literals (known at build time). Null otherwise.
+        private final Map<String, Object> literalOptions;
+        // The options that are literals, even if some other options are variables.
+        private final Map<String, Object> fixedOptions;
+        // Created once with the fixed options, if the formatter is thread safe.
+        // The options not known at build time are passed as variable options when formatting.
+        private final Formatter cachedFormatter;
+        // For placeholders without function and options (`{$var}`) the factory depends on
+        // the type of the argument, so we cache the last formatter used.
+        private volatile CachedFormatter lastDefaultFormatter;
+        // Same, for the standard function of the declaration this placeholder is chained to.
+        private volatile CachedFormatter lastChainedFormatter;
+
+        FunctionCallNode(
+                Expression expression,
+                String varName,
+                int varSlot,
+                Object literalValue,
+                String functionName,
+                FormatterFactory factory,
+                OptionNode[] options,
+                String fallbackString) {
+            this.expression = expression;
+            this.varName = varName;
+            this.varSlot = varSlot;
+            this.literalValue = literalValue;
+            this.functionName = functionName;
+            this.factory = factory;
+            this.options = options;
+            this.optionNames = new String[options.length];
+            int variableCount = 0;
+            for (int i = 0; i < options.length; i++) {
+                optionNames[i] = options[i].name;
+                if (options[i].varName != null) {
+                    variableCount++;
+                }
+            }
+            this.variableOptionNames = new String[variableCount];
+            this.variableOptionIndices = new int[variableCount];
+            for (int i = 0, v = 0; i < options.length; i++) {
+                if (options[i].varName != null) {
+                    variableOptionNames[v] = options[i].name;
+                    variableOptionIndices[v++] = i;
+                }
+            }
+            this.fallbackString = fallbackString;
+            this.literalOptions = literalOptions(options);
+            this.fixedOptions = fixedOptions(options);
+            this.cachedFormatter = createThreadSafeFormatter(functionName, factory, fixedOptions);
+        }
+
+        @Override
+        String argumentName() {
+            return varName;
+        }
+
+        /**
+         * Formats the expression at build time, if the result only depends on the message
+         * and the locale: a literal operand, literal options, and a standard function.
+         * Custom functions are always called at runtime, they might not be pure.
+         *
+         * @return a {@link ConstantNode} with the result, or this node if it can't be folded.
+         */
+        ExpressionNode formatConstant() {
+            if (varName != null || literalValue == null || literalOptions == null) {
+                return this;
+            }
+            String standardName = functionName != null
+                    ? functionName
+                    : STANDARD_FUNCTIONS.getDefaultFormatterNameForType(literalValue.getClass());
+            FormatterFactory funcFactory =
+                    functionName != null ? factory : getFormatterFactoryForType(literalValue);
+            if (funcFactory == null
+                    || standardName == null
+                    || STANDARD_FUNCTIONS.getFormatter(standardName) != funcFactory) {
+                return this;
+            }
+            FormatContext context = new FormatContext();
+            context.start(NO_SLOTS, 0, NO_SLOTS.newArguments());
+            try {
+                FormattedPlaceholder result = resolve(context);
+                return result.getInput() instanceof ResolvedExpression
+                        ? new ConstantNode(result)
+                        : this;
+            } catch (RuntimeException e) {
+                // Invalid options, for example. Report it when (and if) we format.
+                return this;
+            } finally {
+                context.finish();
+            }
+        }
+
+        @Override
+        FormattedPlaceholder resolve(FormatContext context) {
+            if (!bind(context, true)) {
+                return new FormattedPlaceholder(
+                        expression, new PlainStringFormattedValue(fallbackString));
+            }
+            Object toFormat = context.boundInput;
+            ResolvedExpression resExpression = new ResolvedExpression(
+                    toFormat, context.boundFunctionName, context.boundOptions);
+            FormattedPlaceholder formatted =
+                    context.boundFormatter.format(toFormat, context.boundVariableOptions);
+            FormattedValue res =
+                    formatted == null
+                            ? new PlainStringFormattedValue(fallbackString)
+                            : formatted.getFormattedValue();
+            return new FormattedPlaceholder(resExpression, res);
+        }
+
+        @Override
+        Object resolveValue(FormatContext context) {
+            if (!bind(context, true)) {
+                return new FormattedPlaceholder(
+                        expression, new PlainStringFormattedValue(fallbackString));
+            }
+            if (context.boundInput == null) {
+                // A missing argument, for example. Formatted now, so that if it fails the
+                // declaration is ignored, and the argument with the same name is used.
+                return resolve(context);
+            }
+            ResolvedExpression resExpression = new ResolvedExpression(
+                    context.boundInput, context.boundFunctionName, context.boundOptions);
+            return new ResolvedValue(resExpression, context.boundFormatter,
+                    context.boundVariableOptions, fallbackString);
+        }
+
+        @Override
+        void appendTo(Appendable result, FormatContext context) throws IOException {
+            if (!bind(context, true)) {
+                result.append(fallbackString);
+                return;
+            }
+            Formatter ff = context.boundFormatter;
+            if (ff instanceof AppendingFormatter) {
+                // No need for a FormattedPlaceholder, we don't keep the resolved value
+                ((AppendingFormatter) ff)
+                        .appendTo(context.boundInput, context.boundVariableOptions, result);
+            } else {
+                FormattedPlaceholder formatted =
+                        ff.format(context.boundInput, context.boundVariableOptions);
+                if (formatted == null) {
+                    result.append(fallbackString);
                 } else {
-                    continue;
+                    appendValue(formatted.getFormattedValue(), result);
                 }
-                try {
-                    // There it no need to succeed in solving everything.
-                    // For example there is no problem is `$b` is not defined below:
-                    // .local $a = {$b :number}
-                    // {{ Hello {$user}! }}
-                    FormattedPlaceholder fmt = formatExpression(value, variables, arguments);
-                    // If it works, all good
-                    variables.put(name, fmt);
-                } catch (Exception e) {
-                    // It's OK to ignore the failure in this context, see comment above.
+            }
+        }
+
+        /**
+         * Resolves the operand, the function, and the options, without formatting.
+         * The results are stored in the {@code bound*} fields of the context.
+         *
+         * @param withFormatter also create (or reuse) the formatter, in {@code boundFormatter}.
+         *     Not needed when the value is only used for selection.
+         * @return false if the function is unknown.
+         */
+        private boolean bind(FormatContext context, boolean withFormatter) {
+            String resolvedFunctionName = null;
+            Object toFormat = literalValue;
+            Map<String, Object> chainedOptions = Collections.emptyMap();
+
+            if (varName != null) {
+                Object resolved = getVariable(context, varSlot);
+                if (resolved instanceof ResolvedValue) {
+                    // A local variable, chain to the function call that created it
+                    ResolvedExpression re = ((ResolvedValue) resolved).expression;
+                    toFormat = re.argument;
+                    resolvedFunctionName = re.functionName;
+                    chainedOptions = re.options;
+                } else if (resolved instanceof FormattedPlaceholder) {
+                    Object input = ((FormattedPlaceholder) resolved).getInput();
+                    if (input instanceof ResolvedExpression) {
+                        ResolvedExpression re = (ResolvedExpression) input;
+                        toFormat = re.argument;
+                        resolvedFunctionName = re.functionName;
+                        chainedOptions = re.options;
+                    } else {
+                        toFormat = input;
+                    }
+                } else {
+                    toFormat = resolved;
+                }
+            }
+
+            FormatterFactory funcFactory;
+            if (functionName != null) {
+                if (resolvedFunctionName != null && !resolvedFunctionName.equals(functionName)) {
+                    formattingError(
+                            "invalid function overrides, '"
+                                    + resolvedFunctionName + "' <> '" + functionName + "'");
+                }
+                resolvedFunctionName = functionName;
+                funcFactory = factory;
+            } else if (resolvedFunctionName != null) {
+                funcFactory = getFormatterFactory(resolvedFunctionName);
+            } else {
+                funcFactory = getFormatterFactoryForType(toFormat);
+            }
+
+            if (funcFactory == null) {
+                return false;
+            }
+
+            Formatter ff = null;
+            Map<String, Object> resolvedOptions;
+            Map<String, Object> variableOptions;
+            if (literalOptions != null && chainedOptions.isEmpty()) {
+                // All the options are known at build time
+                resolvedOptions = literalOptions;
+                if (!withFormatter) {
+                    variableOptions = Collections.emptyMap();
+                } else if (funcFactory == factory && cachedFormatter != null) {
+                    ff = cachedFormatter;
+                    variableOptions = Collections.emptyMap();
+                } else if (functionName == null) {
+                    ff = getDefaultFormatter(funcFactory);
+                    variableOptions = ff instanceof ThreadSafeFunction
+                            ? Collections.emptyMap()
+                            : context.argumentMap();
+                } else {
+                    ff = funcFactory.createFormatter(locale, resolvedOptions);
+                    variableOptions = context.argumentMap();
+                }
+            } else if (chainedOptions.isEmpty()) {
+                // The common case: the options of this expression only.
+                // Array based maps, with the names computed at build time.
+                Object[] values = new Object[options.length];
+                for (int i = 0; i < options.length; i++) {
+                    OptionNode option = options[i];
+                    values[i] = option.varName == null
+                            ? option.literalValue
+                            : getFormattedVariable(context, option.varSlot);
                 }
+                resolvedOptions = new OptionMap(optionNames, values);
+                if (funcFactory == factory && cachedFormatter != null) {
+                    // The formatter was created with the fixed options,
+                    // and applies the variable ones on top of them.
+                    Object[] variableValues = new Object[variableOptionIndices.length];
+                    for (int i = 0; i < variableValues.length; i++) {
+                        variableValues[i] = values[variableOptionIndices[i]];
+                    }
+                    ff = cachedFormatter;
+                    variableOptions = new OptionMap(variableOptionNames, variableValues);
+                } else {
+                    if (withFormatter) {
+                        ff = funcFactory.createFormatter(locale, resolvedOptions);
+                    }
+                    variableOptions = context.argumentMap();
+                }
+            } else if (funcFactory == factory && cachedFormatter != null) {
+                // Chained: the options of the declaration, overridden by the ones here.
+                // The chained options are not known at build time, so all the options are
+                // passed as variable options.
+                resolvedOptions = new HashMap<>(chainedOptions);
+                for (OptionNode option : options) {
+                    resolvedOptions.put(
+                            option.name,
+                            option.varName == null
+                                    ? option.literalValue
+                                    : getFormattedVariable(context, option.varSlot));
+                }
+                ff = cachedFormatter;
+                variableOptions = resolvedOptions;
+            } else {
+                resolvedOptions = new HashMap<>(chainedOptions);
+                for (OptionNode option : options) {
+                    resolvedOptions.put(
+                            option.name,
+                            option.varName == null
+                                    ? option.literalValue
+                                    : getFormattedVariable(context, option.varSlot));
+                }
+                Formatter chained = withFormatter
+                        ? getChainedFormatter(resolvedFunctionName, funcFactory)
+                        : null;
+                if (chained != null) {
+                    // A standard function, created once. Same as the cached formatter above.
+                    ff = chained;
+                    variableOptions = resolvedOptions;
+                } else {
+                    if (withFormatter) {
+                        ff = funcFactory.createFormatter(locale, resolvedOptions);
+                    }
+                    variableOptions = context.argumentMap();
+                }
+            }
+
+            context.boundInput = toFormat;
+            context.boundFunctionName = resolvedFunctionName;
+            context.boundOptions = resolvedOptions;
+            context.boundVariableOptions = variableOptions;
+            context.boundFormatter = ff;
+            return true;
+        }
+
+        // A placeholder chained to a declaration with options (`{$x}` after
+        // `.local $x = {$n :number minimumFractionDigits=2}`) knows the function only when
+        // formatting. For a standard function the formatter is created once, with the fixed
+        // options of this expression, and the other options are passed as variable options.
+        // Null for custom functions.
+        private Formatter getChainedFormatter(
+                String resolvedFunctionName, FormatterFactory funcFactory) {
+            CachedFormatter cached = lastChainedFormatter;
+            if (cached != null && cached.factory == funcFactory) {
+                return cached.formatter;
+            }
+            Formatter result =
+                    createThreadSafeFormatter(resolvedFunctionName, funcFactory, fixedOptions);
+            if (result != null) {
+                lastChainedFormatter = new CachedFormatter(funcFactory, result);
+            }
+            return result;
+        }
+
+        private Formatter getDefaultFormatter(FormatterFactory funcFactory) {
+            CachedFormatter cached = lastDefaultFormatter;
+            if (cached != null && cached.factory == funcFactory) {
+                return cached.formatter;
+            }
+            Formatter result = funcFactory.createFormatter(locale, literalOptions);
+            if (result instanceof ThreadSafeFunction) {
+                lastDefaultFormatter = new CachedFormatter(funcFactory, result);
+            }
+            return result;
+        }
+    }
+
+    private static Map<String, Object> literalOptions(OptionNode[] options) {
+        for (OptionNode option : options) {
+            if (option.varName != null) {
+                return null;
+            }
+        }
+        return fixedOptions(options);
+    }
+
+    private static Map<String, Object> fixedOptions(OptionNode[] options) {
+        List<String> names = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (OptionNode option : options) {
+            if (option.varName == null) {
+                names.add(option.name);
+                values.add(option.literalValue);
+            }
+        }
+        return new OptionMap(names.toArray(new String[0]), values.toArray());
+    }
+
+    // Only the standard functions can be thread safe, and we don't want to create
+    // custom functions that will not be used (the factories might count them, for example).
+    private Formatter createThreadSafeFormatter(
+            String functionName, FormatterFactory funcFactory, Map<String, Object> fixedOptions) {
+        if (funcFactory == null
+                || fixedOptions == null
+                || STANDARD_FUNCTIONS.getFormatter(functionName) != funcFactory) {
+            return null;
+        }
+        try {
+            Formatter result = funcFactory.createFormatter(locale, fixedOptions);
+            return result instanceof ThreadSafeFunction ? result : null;
+        } catch (RuntimeException e) {
+            // Invalid options, for example. Report it when (and if) we format.
+            return null;
+        }
+    }
+
+    private Selector createThreadSafeSelector(
+            String functionName, SelectorFactory funcFactory, Map<String, Object> fixedOptions) {
+        if (funcFactory == null
+                || fixedOptions == null
+                || STANDARD_FUNCTIONS.getSelector(functionName) != funcFactory) {
+            return null;
+        }
+        try {
+            Selector result = funcFactory.createSelector(locale, fixedOptions);
+            return result instanceof ThreadSafeFunction ? result : null;
+        } catch (RuntimeException e) {
+            // Invalid options, for example. Report it when (and if) we select.
+            return null;
+        }
+    }
+
+    private static class CachedFormatter {
+        final FormatterFactory factory;
+        final Formatter formatter;
+
+        CachedFormatter(FormatterFactory factory, Formatter formatter) {
+            this.factory = factory;
+            this.formatter = formatter;
+        }
+    }
+
+    /** A {@code .input} or {@code .local} declaration. */
+    private static class DeclarationNode {
+        final String name;
+        final int slot;
+        final ExpressionNode value;
+
+        DeclarationNode(String name, int slot, ExpressionNode value) {
+            this.name = name;
+            this.slot = slot;
+            this.value = value;
+        }
+    }
+
+    /** One of the selectors of a {@code .match}. */
+    private class SelectorNode {
+        private final ExpressionNode expression;
+        private final String functionName;
+        private final SelectorFactory factory;
+        // Created once, if the options are all literals and the selector is thread safe.
+        private final Selector cachedSelector;
+
+        SelectorNode(ExpressionNode expression, String functionName, SelectorFactory factory) {
+            this.expression = expression;
+            this.functionName = functionName;
+            this.factory = factory;
+            this.cachedSelector =
+                    expression instanceof FunctionCallNode
+                            ? createThreadSafeSelector(
+                                    functionName,
+                                    factory,
+                                    ((FunctionCallNode) expression).literalOptions)
+                            : null;
+        }
+
+        ResolvedSelector resolve(FormatContext context) {
+            String resolvedFunctionName = functionName;
+            Object argument = null;
+            Map<String, Object> options = Collections.emptyMap();
+            if (expression instanceof FunctionCallNode) {
+                FunctionCallNode fcn = (FunctionCallNode) expression;
+                // Selection only needs the operand, the function, and the options.
+                // The value is never formatted.
+                if (fcn.bind(context, false)) {
+                    if (context.boundInput == null) {
+                        // Missing value. Format it anyway, for the formatter to report errors.
+                        fcn.resolve(context);
+                    }
+                    argument = context.boundInput;
+                    resolvedFunctionName = context.boundFunctionName;
+                    options = context.boundOptions;
+                } else {
+                    // Unknown function, select on the "raw" value
+                    argument =
+                            fcn.varName == null
+                                    ? fcn.literalValue
+                                    : getFormattedVariable(context, fcn.varSlot);
+                }
+            }
+
+            SelectorFactory funcFactory =
+                    resolvedFunctionName != null && resolvedFunctionName.equals(functionName)
+                            ? factory
+                            : getSelectorFactory(resolvedFunctionName);
+            if (funcFactory == null) {
+                throw new IllegalArgumentException(
+                        "Unknown selector type: " + resolvedFunctionName);
+            }
+            Selector selectorFunction;
+            if (cachedSelector != null
+                    && funcFactory == factory
+                    && options == ((FunctionCallNode) expression).literalOptions) {
+                // Same options as the ones used to create the cached selector
+                selectorFunction = cachedSelector;
+            } else {
+                selectorFunction = funcFactory.createSelector(locale, options);
             }
+            return new ResolvedSelector(argument, options, selectorFunction);
         }
-        return variables;
     }
 
-    private static class IntVarTuple {
-        int integer;
-        final Variant variant;
+    /** One of the variants of a {@code .match}. */
+    private static class VariantNode {
+        // The catch-all keys are stored as null
+        final String[] keys;
+        final PatternNode[] pattern;
 
-        public IntVarTuple(int integer, Variant variant) {
-            this.integer = integer;
-            this.variant = variant;
+        VariantNode(String[] keys, PatternNode[] pattern) {
+            this.keys = keys;
+            this.pattern = pattern;
         }
     }
 }
@@ -65,19 +65,24 @@ class MFDataModelValidator {
                 error("Selection variants must have the same number of variants as the selectors.");
             }
             int catchAllCount = 0;
-            StringJoiner fakeKey = new StringJoiner("<<::>>");
+            // With one selector (the common case) the key is the fake key, nothing to join
+            String fakeKey = null;
+            StringJoiner joiner = selectorCount > 1 ? new StringJoiner("<<::>>") : null;
             for (LiteralOrCatchallKey key : variant.keys) {
                 if (key instanceof CatchallKey) {
                     catchAllCount++;
-                    fakeKey.add("*");
+                    fakeKey = "*";
                 } else if (key instanceof Literal) {
-                    fakeKey.add(((Literal) key).value);
+                    fakeKey = ((Literal) key).value;
+                } else {
+                    continue;
+                }
+                if (joiner != null) {
+                    joiner.add(fakeKey);
                 }
             }
-            if (fakeKeys.contains(fakeKey.toString())) {
+            if (!fakeKeys.add(joiner != null ? joiner.toString() : fakeKey)) {
                 error("Dumplicate combination of keys");
-            } else {
-                fakeKeys.add(fakeKey.toString());
             }
             if (catchAllCount == selectorCount) {
                 hasUltimateFallback = true;
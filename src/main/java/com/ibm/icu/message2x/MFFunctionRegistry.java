@@ -3,8 +3,12 @@
 
 package com.ibm.icu.message2x;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 
 /**
@@ -34,6 +38,20 @@ public class MFFunctionRegistry {
     private final Map<String, FormatterFactory> formattersMap;
     private final Map<String, SelectorFactory> selectorsMap;
     private final Map<Class<?>, String> classToFormatter;
+    // The result of getDefaultFormatterNameForType, computed once per class.
+    // The registry is immutable, so the cached values never change.
+    private final ClassValue<String> formatterNameForType =
+            new ClassValue<String>() {
+                @Override
+                protected String computeValue(Class<?> type) {
+                    String result = findFormatterNameForType(type);
+                    return result == null ? NO_FORMATTER : result;
+                }
+            };
+    // Marks the classes without formatter in formatterNameForType
+    private static final String NO_FORMATTER = new String("<none>");
+    // The standard functions merged with this registry, computed on first use by the formatter.
+    volatile MFDataModelFormatter.FunctionLookup mergedWithStandard;
 
     private MFFunctionRegistry(Builder builder) {
         this.formattersMap = new HashMap<>(builder.formattersMap);
@@ -78,6 +96,11 @@ public class MFFunctionRegistry {
         return formattersMap.get(formatterName);
     }
 
+    // No functions and no types, for example the default registry of MessageFormatter.Builder
+    boolean isEmpty() {
+        return formattersMap.isEmpty() && selectorsMap.isEmpty() && classToFormatter.isEmpty();
+    }
+
     /**
      * Get all know names that have a mappings from name to {@link FormatterFactory}.
      *
@@ -94,6 +117,10 @@ public class MFFunctionRegistry {
     /**
      * Returns the name of the formatter used to format an object of type {@code clazz}.
      *
+     * <p>If the class is not registered "as is", the closest registered supertype is used:
+     * superclasses and interfaces, nearest first. At the same distance the superclass wins,
+     * then the interfaces in declaration order. The result is computed once per class.</p>
+     *
      * @param clazz the class of the object to format.
      * @return the name of the formatter class, if registered. Returns {@code null} otherwise.
      *
@@ -102,21 +129,39 @@ public class MFFunctionRegistry {
      */
     @Deprecated
     public String getDefaultFormatterNameForType(Class<?> clazz) {
-        // Search for the class "as is", to save time.
-        // If we don't find it then we iterate the registered classes and check
-        // if the class is an instanceof the ones registered.
-        // For example a BuddhistCalendar when we only registered Calendar
-        String result = classToFormatter.get(clazz);
-        if (result != null) {
-            return result;
+        if (classToFormatter.isEmpty()) {
+            return null;
         }
-        // We didn't find the class registered explicitly "as is"
-        for (Map.Entry<Class<?>, String> e : classToFormatter.entrySet()) {
-            if (e.getKey().isAssignableFrom(clazz)) {
-                return e.getValue();
+        String result = formatterNameForType.get(clazz);
+        return result == NO_FORMATTER ? null : result;
+    }
+
+    /*
+     * Finds the registered type closest to the class: the class itself, then its superclass
+     * and the interfaces it implements, then their supertypes, and so on (breadth first).
+     * At the same distance the superclass wins over the interfaces, and the interfaces are
+     * tried in declaration order. Object is always last.
+     * For example a BuddhistCalendar, when we only registered Calendar.
+     */
+    private String findFormatterNameForType(Class<?> clazz) {
+        Queue<Class<?>> toVisit = new ArrayDeque<>();
+        Set<Class<?>> visited = new HashSet<>();
+        toVisit.add(clazz);
+        while (!toVisit.isEmpty()) {
+            Class<?> type = toVisit.remove();
+            if (type == Object.class || !visited.add(type)) {
+                continue;
+            }
+            String result = classToFormatter.get(type);
+            if (result != null) {
+                return result;
+            }
+            if (type.getSuperclass() != null) {
+                toVisit.add(type.getSuperclass());
             }
+            Collections.addAll(toVisit, type.getInterfaces());
         }
-        return null;
+        return classToFormatter.get(Object.class);
     }
 
     /**
@@ -0,0 +1,306 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+/**
+ * Limits on the size of the messages, for messages that are not trusted
+ * (for example coming from external translators).
+ *
+ * <p>Parsing takes time proportional to the size of the message, and so does converting
+ * number literals (the ones with more than 100 digits are converted as doubles).
+ * But a message can still be very big, selection takes time proportional to the number
+ * of selectors multiplied by the number of variants, and the output can be much longer
+ * than the message. These limits are checked as the message is parsed
+ * (the parser stops at the first one exceeded, with a {@link MFParseException})
+ * and when the message is compiled, for data models built in code
+ * ({@link IllegalArgumentException}). The output limit is checked while formatting.</p>
+ *
+ * <p>By default there are no limits ({@link #NONE}).</p>
+ *
+ * @internal ICU 75 technology preview
+ * @deprecated This API is for technology preview only.
+ */
+@Deprecated
+public final class MFLimits {
+    /**
+     * No limits, the default.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public static final MFLimits NONE = builder().build();
+
+    final int maxInputLength;
+    final int maxDeclarations;
+    final int maxSelectors;
+    final int maxVariants;
+    final int maxSelectionSize;
+    final int maxOptions;
+    final int maxOutputLength;
+
+    private MFLimits(Builder builder) {
+        this.maxInputLength = builder.maxInputLength;
+        this.maxDeclarations = builder.maxDeclarations;
+        this.maxSelectors = builder.maxSelectors;
+        this.maxVariants = builder.maxVariants;
+        this.maxSelectionSize = builder.maxSelectionSize;
+        this.maxOptions = builder.maxOptions;
+        this.maxOutputLength = builder.maxOutputLength;
+    }
+
+    /**
+     * Creates a builder, with no limits.
+     *
+     * @return the Builder.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the maximum length of the message syntax, in the units of the input
+     * (UTF-16 code units, or bytes for UTF-8).
+     *
+     * @return the limit, {@link Integer#MAX_VALUE} if none.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public int getMaxInputLength() {
+        return maxInputLength;
+    }
+
+    /**
+     * Returns the maximum number of declarations ({@code .input} and {@code .local}).
+     *
+     * @return the limit, {@link Integer#MAX_VALUE} if none.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public int getMaxDeclarations() {
+        return maxDeclarations;
+    }
+
+    /**
+     * Returns the maximum number of selectors in a {@code .match}.
+     *
+     * @return the limit, {@link Integer#MAX_VALUE} if none.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public int getMaxSelectors() {
+        return maxSelectors;
+    }
+
+    /**
+     * Returns the maximum number of variants in a {@code .match}.
+     *
+     * @return the limit, {@link Integer#MAX_VALUE} if none.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public int getMaxVariants() {
+        return maxVariants;
+    }
+
+    /**
+     * Returns the maximum number of selectors multiplied by the number of variants,
+     * which is the number of keys, and the work done to select a variant.
+     *
+     * @return the limit, {@link Integer#MAX_VALUE} if none.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public int getMaxSelectionSize() {
+        return maxSelectionSize;
+    }
+
+    /**
+     * Returns the maximum number of options of one function call.
+     *
+     * @return the limit, {@link Integer#MAX_VALUE} if none.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public int getMaxOptions() {
+        return maxOptions;
+    }
+
+    /**
+     * Returns the maximum length of the formatted message, in chars.
+     *
+     * @return the limit, {@link Integer#MAX_VALUE} if none.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public int getMaxOutputLength() {
+        return maxOutputLength;
+    }
+
+    /**
+     * A {@code Builder} used to build instances of {@link MFLimits}.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public static class Builder {
+        private int maxInputLength = Integer.MAX_VALUE;
+        private int maxDeclarations = Integer.MAX_VALUE;
+        private int maxSelectors = Integer.MAX_VALUE;
+        private int maxVariants = Integer.MAX_VALUE;
+        private int maxSelectionSize = Integer.MAX_VALUE;
+        private int maxOptions = Integer.MAX_VALUE;
+        private int maxOutputLength = Integer.MAX_VALUE;
+
+        // Prevent direct creation
+        private Builder() {}
+
+        private static int check(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Negative limit: " + limit);
+            }
+            return limit;
+        }
+
+        /**
+         * Sets the maximum length of the message syntax, in the units of the input
+         * (UTF-16 code units, or bytes for UTF-8). Checked before parsing.
+         *
+         * @param maxInputLength the limit.
+         * @return the builder, for fluent use.
+         *
+         * @internal ICU 75 technology preview
+         * @deprecated This API is for technology preview only.
+         */
+        @Deprecated
+        public Builder setMaxInputLength(int maxInputLength) {
+            this.maxInputLength = check(maxInputLength);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of declarations ({@code .input} and {@code .local}).
+         *
+         * @param maxDeclarations the limit.
+         * @return the builder, for fluent use.
+         *
+         * @internal ICU 75 technology preview
+         * @deprecated This API is for technology preview only.
+         */
+        @Deprecated
+        public Builder setMaxDeclarations(int maxDeclarations) {
+            this.maxDeclarations = check(maxDeclarations);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of selectors in a {@code .match}.
+         *
+         * @param maxSelectors the limit.
+         * @return the builder, for fluent use.
+         *
+         * @internal ICU 75 technology preview
+         * @deprecated This API is for technology preview only.
+         */
+        @Deprecated
+        public Builder setMaxSelectors(int maxSelectors) {
+            this.maxSelectors = check(maxSelectors);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of variants in a {@code .match}.
+         *
+         * @param maxVariants the limit.
+         * @return the builder, for fluent use.
+         *
+         * @internal ICU 75 technology preview
+         * @deprecated This API is for technology preview only.
+         */
+        @Deprecated
+        public Builder setMaxVariants(int maxVariants) {
+            this.maxVariants = check(maxVariants);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of selectors multiplied by the number of variants.
+         *
+         * @param maxSelectionSize the limit.
+         * @return the builder, for fluent use.
+         *
+         * @internal ICU 75 technology preview
+         * @deprecated This API is for technology preview only.
+         */
+        @Deprecated
+        public Builder setMaxSelectionSize(int maxSelectionSize) {
+            this.maxSelectionSize = check(maxSelectionSize);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of options of one function call.
+         *
+         * @param maxOptions the limit.
+         * @return the builder, for fluent use.
+         *
+         * @internal ICU 75 technology preview
+         * @deprecated This API is for technology preview only.
+         */
+        @Deprecated
+        public Builder setMaxOptions(int maxOptions) {
+            this.maxOptions = check(maxOptions);
+            return this;
+        }
+
+        /**
+         * Sets the maximum length of the formatted message, in chars.
+         * Formatting stops with an {@link IllegalArgumentException} when the output
+         * gets longer.
+         *
+         * @param maxOutputLength the limit.
+         * @return the builder, for fluent use.
+         *
+         * @internal ICU 75 technology preview
+         * @deprecated This API is for technology preview only.
+         */
+        @Deprecated
+        public Builder setMaxOutputLength(int maxOutputLength) {
+            this.maxOutputLength = check(maxOutputLength);
+            return this;
+        }
+
+        /**
+         * Builds an instance of {@link MFLimits}.
+         *
+         * @return the {@link MFLimits} created.
+         *
+         * @internal ICU 75 technology preview
+         * @deprecated This API is for technology preview only.
+         */
+        @Deprecated
+        public MFLimits build() {
+            return new MFLimits(this);
+        }
+    }
+}
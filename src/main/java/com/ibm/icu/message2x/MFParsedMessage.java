@@ -0,0 +1,281 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message parsed from text, that can be edited and parsed again incrementally.
+ *
+ * <p>Made for editors, that parse the message after each change, to validate it.
+ * After an edit only the declaration, variant, or quoted pattern that contains the edit
+ * is parsed again, and the other ones are reused, as they are (same objects),
+ * in the new data model. If the edit changes the structure of the message (for example it
+ * spans several variants, or it adds a new one), or is in a simple message, the whole message
+ * is parsed again. Either way the result (data model or error) is the same as parsing
+ * the new text with {@link MFParser}.</p>
+ *
+ * <p>A message with errors is not thrown away: its parts that are still valid are kept,
+ * so editing a message through invalid states (as when typing) stays incremental.</p>
+ *
+ * <p>Immutable: an edit returns a new instance.</p>
+ *
+ * @internal ICU 75 technology preview
+ * @deprecated This API is for technology preview only.
+ */
+@Deprecated
+public final class MFParsedMessage {
+    private final String text;
+    private final MFDataModel.Message dataModel;
+    private final MFParseException error;
+
+    // The structure of the message, null if it can only be parsed in full.
+    // The [start, end) spans of the declarations, then of the variants or of the quoted pattern,
+    // and what was parsed from each span (null for the ones with errors).
+    private final int[][] spans;
+    private final Object[] parts;
+    private final int declarationCount;
+    // Null for a pattern message
+    private final List<MFDataModel.Expression> selectors;
+
+    private MFParsedMessage(String text, MFDataModel.Message dataModel, MFParseException error,
+            int[][] spans, Object[] parts, int declarationCount,
+            List<MFDataModel.Expression> selectors) {
+        this.text = text;
+        this.dataModel = dataModel;
+        this.error = error;
+        this.spans = spans;
+        this.parts = parts;
+        this.declarationCount = declarationCount;
+        this.selectors = selectors;
+    }
+
+    /**
+     * Parses a {@code MessageFormat 2} message.
+     * Errors are not thrown, they are returned by {@link #getError()}.
+     *
+     * @param text the text to parse.
+     * @return the parsed message.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public static MFParsedMessage parse(String text) {
+        List<int[]> spanList = new ArrayList<>();
+        MFDataModel.Message dataModel;
+        try {
+            dataModel = MFParser.parse(text, spanList);
+        } catch (MFParseException e) {
+            return new MFParsedMessage(text, null, e, null, null, 0, null);
+        }
+
+        List<MFDataModel.Declaration> declarations = declarationsOf(dataModel);
+        List<Object> partList = new ArrayList<>(declarations);
+        List<MFDataModel.Expression> selectors = null;
+        if (dataModel instanceof MFDataModel.SelectMessage) {
+            MFDataModel.SelectMessage sm = (MFDataModel.SelectMessage) dataModel;
+            selectors = sm.selectors;
+            partList.addAll(sm.variants);
+        } else if (((MFDataModel.PatternMessage) dataModel).pattern != null) {
+            partList.add(((MFDataModel.PatternMessage) dataModel).pattern);
+        }
+        // Reserved statements read the expressions after them, so they can't be parsed alone.
+        // A simple message has no spans, the whole text is one pattern.
+        if (spanList.isEmpty() || spanList.size() != partList.size()
+                || hasReservedStatements(declarations)) {
+            return new MFParsedMessage(text, dataModel, null, null, null, 0, null);
+        }
+        return new MFParsedMessage(text, dataModel, null, spanList.toArray(new int[0][]),
+                partList.toArray(), declarations.size(), selectors);
+    }
+
+    /**
+     * Returns the text of the message.
+     *
+     * @return the text.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the data model of the message.
+     * It must not be modified, it shares parts with the messages before and after edits.
+     *
+     * @return the data model, or null if the message has errors.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public MFDataModel.Message getDataModel() {
+        return dataModel;
+    }
+
+    /**
+     * Returns the first error in the message, the one {@link MFParser} would throw.
+     *
+     * @return the error, or null if the message is valid.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public MFParseException getError() {
+        return error;
+    }
+
+    /**
+     * Replaces a part of the text, and parses the result.
+     *
+     * @param offset where the edit starts in the current text.
+     * @param removedLength how many chars are removed.
+     * @param insertedText the text inserted instead.
+     * @return the new message. This one is not changed.
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public MFParsedMessage edit(int offset, int removedLength, CharSequence insertedText) {
+        if (offset < 0 || removedLength < 0 || offset > text.length() - removedLength) {
+            throw new IllegalArgumentException("Edit outside the text: offset " + offset
+                    + ", removed length " + removedLength + ", text length " + text.length());
+        }
+        CharSequence inserted = insertedText == null ? "" : insertedText;
+        String newText = new StringBuilder(text.length() - removedLength + inserted.length())
+                .append(text, 0, offset)
+                .append(inserted)
+                .append(text, offset + removedLength, text.length())
+                .toString();
+        if (spans != null) {
+            MFParsedMessage result = reparse(newText, offset, removedLength, inserted.length());
+            if (result != null) {
+                return result;
+            }
+        }
+        return parse(newText);
+    }
+
+    // Parses again only the part that contains the edit, or returns null if that is not enough
+    private MFParsedMessage reparse(String newText, int offset, int removedLength, int inserted) {
+        for (int i = 0; i < spans.length; i++) {
+            // An insertion between two parts is in both. But not before the first declaration,
+            // variant, or quoted pattern: what is there decides what kind of message it is,
+            // or if it is one more selector.
+            boolean first = i == 0 || i == declarationCount;
+            int start = spans[i][0];
+            if ((first ? offset > start : offset >= start)
+                    && offset + removedLength <= spans[i][1]) {
+                MFParsedMessage result = reparse(newText, i, inserted - removedLength);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    private MFParsedMessage reparse(String newText, int edited, int delta) {
+        int[][] newSpans = new int[spans.length][];
+        for (int i = 0; i < spans.length; i++) {
+            if (i < edited) {
+                newSpans[i] = spans[i];
+            } else if (i == edited) {
+                newSpans[i] = new int[] {spans[i][0], spans[i][1] + delta};
+            } else {
+                newSpans[i] = new int[] {spans[i][0] + delta, spans[i][1] + delta};
+            }
+        }
+        Object[] newParts = parts.clone();
+        newParts[edited] = null;
+
+        // The edited part, and the parts with errors before it, that may read past their end.
+        // The first error is the one of the message, the parts after it are parsed later,
+        // when it is fixed.
+        MFParseException newError = null;
+        for (int i = 0; i < newParts.length; i++) {
+            if (newParts[i] != null || (newError != null && i != edited)) {
+                continue;
+            }
+            try {
+                Object part = parsePart(newText, i, newSpans[i]);
+                if (part == null) {
+                    return null;
+                }
+                newParts[i] = part;
+            } catch (MFParseException e) {
+                if (newError == null) {
+                    newError = e;
+                }
+            }
+        }
+
+        MFDataModel.Message newDataModel = null;
+        if (newError == null) {
+            newDataModel = toDataModel(newParts);
+            try {
+                // The checks across parts (duplicate declarations or keys, number of keys)
+                new MFDataModelValidator(newDataModel).validate();
+            } catch (MFParseException e) {
+                newDataModel = null;
+                newError = e;
+            }
+        }
+        return new MFParsedMessage(newText, newDataModel, newError,
+                newSpans, newParts, declarationCount, selectors);
+    }
+
+    // Null if the span is not that kind of part anymore
+    private Object parsePart(String newText, int index, int[] span) throws MFParseException {
+        if (index < declarationCount) {
+            return MFParser.parseDeclaration(newText, span[0], span[1]);
+        }
+        if (selectors != null) {
+            return MFParser.parseVariant(newText, span[0], span[1]);
+        }
+        return MFParser.parseQuotedPattern(newText, span[0], span[1]);
+    }
+
+    private MFDataModel.Message toDataModel(Object[] newParts) {
+        List<MFDataModel.Declaration> declarations = new ArrayList<>(declarationCount);
+        for (int i = 0; i < declarationCount; i++) {
+            declarations.add((MFDataModel.Declaration) newParts[i]);
+        }
+        if (selectors != null) {
+            List<MFDataModel.Variant> variants =
+                    new ArrayList<>(newParts.length - declarationCount);
+            for (int i = declarationCount; i < newParts.length; i++) {
+                variants.add((MFDataModel.Variant) newParts[i]);
+            }
+            return new MFDataModel.SelectMessage(
+                    declarations, new ArrayList<>(selectors), variants);
+        }
+        MFDataModel.Pattern pattern = newParts.length > declarationCount
+                ? (MFDataModel.Pattern) newParts[declarationCount]
+                : null;
+        return new MFDataModel.PatternMessage(declarations, pattern);
+    }
+
+    private static List<MFDataModel.Declaration> declarationsOf(MFDataModel.Message message) {
+        return message instanceof MFDataModel.SelectMessage
+                ? ((MFDataModel.SelectMessage) message).declarations
+                : ((MFDataModel.PatternMessage) message).declarations;
+    }
+
+    private static boolean hasReservedStatements(List<MFDataModel.Declaration> declarations) {
+        for (MFDataModel.Declaration declaration : declarations) {
+            if (declaration instanceof MFDataModel.UnsupportedStatement) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -3,12 +3,11 @@
 
 package com.ibm.icu.message2x;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This class parses a {@code MessageFormat 2} syntax into a data model {@link MFDataModel.Message}.
@@ -22,9 +21,14 @@ import java.util.regex.Pattern;
 public class MFParser {
     private static final int EOF = -1;
     private final InputSource input;
+    private final MFLimits limits;
+    // The spans of the declarations, variants and quoted pattern, for MFParsedMessage.
+    // Null if not needed.
+    private List<int[]> spans;
 
-    MFParser(String text) {
-        this.input = new InputSource(text);
+    MFParser(InputSource input, MFLimits limits) {
+        this.input = input;
+        this.limits = limits;
     }
 
     /**
@@ -40,24 +44,126 @@ public class MFParser {
      */
     @Deprecated
     public static MFDataModel.Message parse(String input) throws MFParseException {
-        return new MFParser(input).parseImpl();
+        return parse(input, MFLimits.NONE);
+    }
+
+    /**
+     * Parses a {@code MessageFormat 2} syntax into a {@link MFDataModel.Message}.
+     *
+     * <p>The text is read in place, without first making a {@code String} of the whole message.
+     * The text must not change while parsing.</p>
+     * @param input the text to parse
+     * @return the parsed {@code MFDataModel.Message}
+     * @throws MFParseException if errors are detected
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public static MFDataModel.Message parse(CharSequence input) throws MFParseException {
+        return parse(input, MFLimits.NONE);
+    }
+
+    /**
+     * Parses a {@code MessageFormat 2} syntax into a {@link MFDataModel.Message}.
+     *
+     * <p>The message is read in place, from a range of the array (for example a message
+     * in a bigger file, loaded in memory). The error offsets are relative to the start
+     * of the range.</p>
+     * @param input the array containing the text to parse
+     * @param offset the start of the message in the array
+     * @param length the length of the message
+     * @return the parsed {@code MFDataModel.Message}
+     * @throws MFParseException if errors are detected
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public static MFDataModel.Message parse(char[] input, int offset, int length)
+            throws MFParseException {
+        return new MFParser(InputSource.of(input, offset, length), MFLimits.NONE).parseImpl();
+    }
+
+    /**
+     * Parses a {@code MessageFormat 2} syntax, encoded as UTF-8, into a
+     * {@link MFDataModel.Message}.
+     *
+     * <p>The message is the content of the buffer between its position and its limit.
+     * It is decoded in place, so it can be a slice of a bigger buffer, or of a memory mapped
+     * file. The position of the buffer is not changed.
+     * Ill-formed UTF-8 is a parse error. The error offsets are in bytes,
+     * relative to the position of the buffer.</p>
+     * @param input the UTF-8 bytes to parse
+     * @return the parsed {@code MFDataModel.Message}
+     * @throws MFParseException if errors are detected
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public static MFDataModel.Message parseUtf8(ByteBuffer input) throws MFParseException {
+        return parseUtf8(input, MFLimits.NONE);
+    }
+
+    /**
+     * Parses a {@code MessageFormat 2} syntax into a {@link MFDataModel.Message},
+     * failing if the message exceeds the limits.
+     *
+     * <p>For messages that are not trusted. The length is checked before parsing,
+     * the other limits as soon as they are exceeded.</p>
+     * @param input the text to parse
+     * @param limits the limits to check
+     * @return the parsed {@code MFDataModel.Message}
+     * @throws MFParseException if errors are detected, or a limit is exceeded
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public static MFDataModel.Message parse(CharSequence input, MFLimits limits)
+            throws MFParseException {
+        return new MFParser(InputSource.of(input), limits).parseImpl();
+    }
+
+    /**
+     * Parses a {@code MessageFormat 2} syntax, encoded as UTF-8, into a
+     * {@link MFDataModel.Message}, failing if the message exceeds the limits.
+     *
+     * <p>Same as {@link #parseUtf8(ByteBuffer)}, the input length limit is in bytes.</p>
+     * @param input the UTF-8 bytes to parse
+     * @param limits the limits to check
+     * @return the parsed {@code MFDataModel.Message}
+     * @throws MFParseException if errors are detected, or a limit is exceeded
+     *
+     * @internal ICU 75 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public static MFDataModel.Message parseUtf8(ByteBuffer input, MFLimits limits)
+            throws MFParseException {
+        return new MFParser(InputSource.ofUtf8(input), limits).parseImpl();
     }
 
     // Parser proper
     private MFDataModel.Message parseImpl() throws MFParseException {
+        if (input.length() > limits.maxInputLength) {
+            // Not using error(), that shows the whole input
+            throw new MFParseException("Parse error: the message is longer than "
+                    + limits.maxInputLength, limits.maxInputLength);
+        }
         MFDataModel.Message result;
         int cp = input.peekChar();
         if (cp == '.') { // declarations or .match
             result = getComplexMessage();
         } else if (cp == '{') { // `{` or `{{`
             cp = input.readCodePoint();
-            cp = input.peekChar();
-            if (cp == '{') { // `{{`, complex body without declarations
-                input.backup(1); // let complexBody deal with the wrapping {{ and }}
+            if (input.peekChar() == '{') { // `{{`, complex body without declarations
+                input.unread(cp); // let complexBody deal with the wrapping {{ and }}
                 MFDataModel.Pattern pattern = getQuotedPattern();
                 result = new MFDataModel.PatternMessage(new ArrayList<>(), pattern);
             } else { // placeholder
-                input.backup(1); // We want the '{' present, to detect the part as placeholder.
+                input.unread(cp); // We want the '{' present, to detect the part as placeholder.
                 MFDataModel.Pattern pattern = getPattern();
                 result = new MFDataModel.PatternMessage(new ArrayList<>(), pattern);
             }
@@ -98,21 +204,32 @@ public class MFParser {
                 MFDataModel.Expression ph = getPlaceholder();
                 return ph;
             default:
+                int start = input.getPosition();
                 String plainText = getText();
+                checkCondition(input.getPosition() != start, "Invalid character in pattern");
                 MFDataModel.StringPart sp = new MFDataModel.StringPart(plainText);
                 return sp;
         }
     }
 
-    private String getText() {
-        StringBuilder result = new StringBuilder();
+    // The text is a substring of the input, unless there are escapes.
+    // Only then we copy it, code point by code point.
+    private String getText() throws MFParseException {
+        int start = input.getPosition();
+        StringBuilder result = null;
         while (true) {
+            int end = input.getPosition();
             int cp = input.readCodePoint();
             switch (cp) {
                 case EOF:
-                    return result.toString();
+                    return textFrom(start, end, result);
                 case '\\':
+                    if (result == null) {
+                        result = new StringBuilder();
+                        input.appendTo(result, start, end);
+                    }
                     cp = input.readCodePoint();
+                    checkCondition(cp != EOF, "Unexpected end of input after '\\'");
                     if (cp == '\\' || cp == '{' || cp == '|' | cp == '}') {
                         result.appendCodePoint(cp);
                     } else { // TODO: Error, treat invalid escape?
@@ -123,19 +240,31 @@ public class MFParser {
                 case '.':
                 case '@':
                 case '|':
-                    result.appendCodePoint(cp);
+                    if (result != null) {
+                        result.appendCodePoint(cp);
+                    }
                     break;
                 default:
                     if (StringUtils.isContentChar(cp) || StringUtils.isWhitespace(cp)) {
-                        result.appendCodePoint(cp);
+                        if (result != null) {
+                            result.appendCodePoint(cp);
+                        }
                     } else {
-                        input.backup(1);
-                        return result.toString();
+                        input.unread(cp);
+                        return textFrom(start, end, result);
                     }
             }
         }
     }
 
+    // The text read since start: the copy with the escapes resolved, or a substring
+    private String textFrom(int start, int end, StringBuilder unescaped) {
+        if (unescaped != null) {
+            return unescaped.toString();
+        }
+        return input.substring(start, end);
+    }
+
     // abnf: placeholder = expression / markup
     // abnf: expression = literal-expression
     // abnf: / variable-expression
@@ -232,13 +361,14 @@ public class MFParser {
         checkCondition(literal != null, "Literal expression expected.");
 
         MFDataModel.Annotation annotation = null;
+        int position = input.getPosition();
         int wsCount = skipWhitespaces();
         if (wsCount > 0) { // we might have an annotation
             annotation = getAnnotation();
             if (annotation == null) {
                 // We had some spaces, but no annotation.
-                // So we put (some) back for the possible attributes.
-                input.backup(1);
+                // So we put them back for the possible attributes.
+                input.gotoPosition(position);
             }
         }
 
@@ -323,7 +453,8 @@ public class MFParser {
         if (cp == '@') {
             input.readCodePoint(); // consume the '@'
             String id = getIdentifier();
-            int wsCount = skipWhitespaces();
+            int afterId = input.getPosition();
+            skipWhitespaces();
             cp = input.peekChar();
             MFDataModel.LiteralOrVariableRef literalOrVariable = null;
             if (cp == '=') {
@@ -333,7 +464,7 @@ public class MFParser {
                 checkCondition(literalOrVariable != null, "Attributes must have a value after `=`");
             } else {
                 // was not equal, attribute without a value, put the "spaces" back.
-                input.backup(wsCount);
+                input.gotoPosition(afterId);
             }
             return new MFDataModel.Attribute(id, literalOrVariable);
         } else {
@@ -345,7 +476,8 @@ public class MFParser {
     // abnf: reserved-body = *([s] 1*(reserved-char / reserved-escape / quoted))
     // abnf: reserved-escape = backslash ( backslash / "{" / "|" / "}" )
     private String getReservedBody() throws MFParseException {
-        int spaceCount = skipWhitespaces();
+        int position = input.getPosition();
+        skipWhitespaces();
         StringBuilder result = new StringBuilder();
         while (true) {
             int cp = input.readCodePoint();
@@ -358,17 +490,17 @@ public class MFParser {
                         "Invalid escape sequence. Only \\{, \\| and \\} are valid here.");
                 result.append(cp);
             } else if (cp == '|') {
-                input.backup(1);
+                input.unread(cp);
                 MFDataModel.Literal quoted = getQuotedLiteral();
                 result.append(quoted.value);
             } else if (cp == EOF) {
                 return result.toString();
             } else {
                 if (result.length() == 0) {
-                    input.backup(spaceCount + 1);
+                    input.gotoPosition(position);
                     return "";
                 } else {
-                    input.backup(1);
+                    input.unread(cp);
                     return result.toString();
                 }
             }
@@ -379,6 +511,7 @@ public class MFParser {
     // abnf: namespace = name
     // abnf: name = name-start *name-char
     private String getIdentifier() throws MFParseException {
+        int start = input.getPosition();
         String namespace = getName();
         if (namespace == null) {
             return null;
@@ -386,10 +519,13 @@ public class MFParser {
         int cp = input.readCodePoint();
         if (cp == ':') { // the previous name was namespace
             String name = getName();
-            checkCondition(name != null, "Expected name after namespace '" + namespace + "'");
-            return namespace + ":" + name;
+            if (name == null) {
+                error("Expected name after namespace '" + namespace + "'");
+            }
+            // "namespace:name", as in the input
+            return input.substring(start, input.getPosition());
         } else {
-            input.backup(1);
+            input.unread(cp);
         }
         return namespace;
     }
@@ -406,6 +542,7 @@ public class MFParser {
                 error("Duplicated option '" + option.name + "'");
             }
             options.put(option.name, option);
+            checkLimit(options.size(), limits.maxOptions, "options");
         }
         return options;
     }
@@ -444,11 +581,11 @@ public class MFParser {
         switch (cp) {
             case '|': // quoted
                 // abnf: quoted = "|" *(quoted-char / quoted-escape) "|"
-                input.backup(1);
+                input.unread(cp);
                 MFDataModel.Literal ql = getQuotedLiteral();
                 return ql;
             default: // unquoted
-                input.backup(1);
+                input.unread(cp);
                 MFDataModel.Literal unql = getUnQuotedLiteral();
                 return unql;
         }
@@ -467,16 +604,26 @@ public class MFParser {
     }
 
     private MFDataModel.Literal getQuotedLiteral() throws MFParseException {
-        StringBuilder result = new StringBuilder();
+        StringBuilder result = null;
         int cp = input.readCodePoint();
         checkCondition(cp == '|', "expected starting '|'");
+        int start = input.getPosition();
+        int end;
         while (true) {
+            end = input.getPosition();
             cp = input.readCodePoint();
             if (cp == EOF) {
                 break;
             } else if (StringUtils.isQuotedChar(cp)) {
-                result.appendCodePoint(cp);
+                if (result != null) {
+                    result.appendCodePoint(cp);
+                }
             } else if (cp == '\\') {
+                if (result == null) {
+                    // Escapes: copy what we have so far, and continue with a copy
+                    result = new StringBuilder();
+                    input.appendTo(result, start, end);
+                }
                 cp = input.readCodePoint();
                 checkCondition(cp == '|', "Invalid escape sequence, only \"\\|\" is valid here");
                 result.appendCodePoint('|');
@@ -487,7 +634,8 @@ public class MFParser {
 
         checkCondition(cp == '|', "expected ending '|'");
 
-        return new MFDataModel.Literal(result.toString());
+        return new MFDataModel.Literal(
+                result != null ? result.toString() : input.substring(start, end));
     }
 
     private MFDataModel.Literal getUnQuotedLiteral() throws MFParseException {
@@ -500,15 +648,27 @@ public class MFParser {
 
     // abnf: ; number-literal matches JSON number (https://www.rfc-editor.org/rfc/rfc8259#section-6)
     // abnf: number-literal = ["-"] (%x30 / (%x31-39 *DIGIT)) ["." 1*DIGIT] [%i"e" ["-" / "+"] 1*DIGIT]
-    private static final Pattern RE_NUMBER_LITERAL =
-            Pattern.compile("^-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+\\-]?[0-9]+)?");
-
     private MFDataModel.Literal getNumberLiteral() {
-        String numberString = peekWithRegExp(RE_NUMBER_LITERAL);
-        if (numberString != null) {
-            return new MFDataModel.Literal(numberString);
+        int start = input.getPosition();
+        // The characters that can be in a number literal are ASCII, one unit in any input
+        int cp = input.readCodePoint();
+        while (StringUtils.isDigit(cp)
+                || cp == '-' || cp == '+' || cp == '.' || cp == 'e' || cp == 'E') {
+            cp = input.readCodePoint();
         }
-        return null;
+        input.unread(cp);
+        if (input.getPosition() == start) {
+            return null;
+        }
+        String candidate = input.substring(start, input.getPosition());
+        int end = StringUtils.numberLiteralEnd(candidate, 0);
+        if (end < 0) {
+            input.gotoPosition(start);
+            return null;
+        }
+        input.gotoPosition(start + end);
+        String numberString = end == candidate.length() ? candidate : candidate.substring(0, end);
+        return new MFDataModel.Literal(numberString, OptUtils.parseNumberLiteral(numberString));
     }
 
     private void skipMandatoryWhitespaces() throws MFParseException {
@@ -528,7 +688,7 @@ public class MFParser {
                 return skipCount;
             }
             if (!StringUtils.isWhitespace(cp)) {
-                input.backup(1);
+                input.unread(cp);
                 return skipCount;
             }
             skipCount++;
@@ -539,6 +699,7 @@ public class MFParser {
         List<MFDataModel.Declaration> declarations = new ArrayList<>();
         boolean foundMatch = false;
         while (true) {
+            int start = input.getPosition();
             MFDataModel.Declaration declaration = getDeclaration();
             if (declaration == null) {
                 break;
@@ -548,6 +709,8 @@ public class MFParser {
                 break;
             }
             declarations.add(declaration);
+            checkLimit(declarations.size(), limits.maxDeclarations, "declarations");
+            addSpan(start);
         }
         if (foundMatch) {
             return getMatch(declarations);
@@ -558,7 +721,9 @@ public class MFParser {
                 // Only declarations, no pattern
                 return new MFDataModel.PatternMessage(declarations, null);
             } else {
+                int start = input.getPosition();
                 MFDataModel.Pattern pattern = getQuotedPattern();
+                addSpan(start);
                 return new MFDataModel.PatternMessage(declarations, pattern);
             }
         }
@@ -584,6 +749,7 @@ public class MFParser {
             checkCondition(
                     !(expression instanceof MFDataModel.Markup), "Cannot do selection on markup");
             expressions.add(expression);
+            checkLimit(expressions.size(), limits.maxSelectors, "selectors");
         }
 
         checkCondition(!expressions.isEmpty(), "There should be at least one selector expression.");
@@ -591,11 +757,16 @@ public class MFParser {
         // At this point we need to look for variants, which are key - value
         List<MFDataModel.Variant> variants = new ArrayList<>();
         while (true) {
+            int start = input.getPosition();
             MFDataModel.Variant variant = getVariant();
             if (variant == null) {
                 break;
             }
+            addSpan(start);
             variants.add(variant);
+            checkLimit(variants.size(), limits.maxVariants, "variants");
+            checkLimit((long) variants.size() * expressions.size(), limits.maxSelectionSize,
+                    "selectors multiplied by variants");
         }
         return new MFDataModel.SelectMessage(declarations, expressions, variants);
     }
@@ -724,26 +895,90 @@ public class MFParser {
     }
 
     private String getName() throws MFParseException {
-        StringBuilder result = new StringBuilder();
+        int start = input.getPosition();
         int cp = input.readCodePoint();
         checkCondition(cp != EOF, "Expected name or namespace.");
         if (!StringUtils.isNameStart(cp)) {
-            input.backup(1);
+            input.unread(cp);
             return null;
         }
-        result.appendCodePoint(cp);
+        int end;
         while (true) {
+            end = input.getPosition();
             cp = input.readCodePoint();
             if (StringUtils.isNameChar(cp)) {
-                result.appendCodePoint(cp);
+                continue;
             } else if (cp == EOF) {
                 break;
             } else {
-                input.backup(1);
+                input.unread(cp);
                 break;
             }
         }
-        return result.toString();
+        // Names have no escapes, always a substring of the input
+        return input.substring(start, end);
+    }
+
+    private void addSpan(int start) {
+        if (spans != null) {
+            spans.add(new int[] {start, input.getPosition()});
+        }
+    }
+
+    // ====================================
+    // Used by MFParsedMessage, to parse again only the part of a message that was edited.
+    // The parts are parsed with the whole text as input, to get the same errors and positions.
+    // ====================================
+
+    /**
+     * Parses a message, and adds the span of each declaration, then of each variant
+     * or of the quoted pattern, to {@code spans}. Simple messages have no spans.
+     */
+    static MFDataModel.Message parse(String text, List<int[]> spans) throws MFParseException {
+        MFParser parser = new MFParser(InputSource.of(text), MFLimits.NONE);
+        parser.spans = spans;
+        return parser.parseImpl();
+    }
+
+    private static MFParser parserAt(String text, int start) {
+        MFParser parser = new MFParser(InputSource.of(text), MFLimits.NONE);
+        parser.input.gotoPosition(start);
+        return parser;
+    }
+
+    /**
+     * The declaration from start to end, or null if that is not exactly one
+     * {@code .input} or {@code .local} declaration (the structure of the message changed).
+     */
+    static MFDataModel.Declaration parseDeclaration(String text, int start, int end)
+            throws MFParseException {
+        MFParser parser = parserAt(text, start);
+        MFDataModel.Declaration result = parser.getDeclaration();
+        boolean simple = result instanceof MFDataModel.InputDeclaration
+                || result instanceof MFDataModel.LocalDeclaration;
+        return simple && parser.input.getPosition() == end ? result : null;
+    }
+
+    /** The variant from start to end, or null if that is not exactly one variant. */
+    static MFDataModel.Variant parseVariant(String text, int start, int end)
+            throws MFParseException {
+        MFParser parser = parserAt(text, start);
+        MFDataModel.Variant result = parser.getVariant();
+        return parser.input.getPosition() == end ? result : null;
+    }
+
+    /** The quoted pattern from start to end, or null if that is not exactly one. */
+    static MFDataModel.Pattern parseQuotedPattern(String text, int start, int end)
+            throws MFParseException {
+        MFParser parser = parserAt(text, start);
+        MFDataModel.Pattern result = parser.getQuotedPattern();
+        return parser.input.getPosition() == end ? result : null;
+    }
+
+    private void checkLimit(long count, int limit, String what) throws MFParseException {
+        if (count > limit) {
+            error("Too many " + what + ", the limit is " + limit);
+        }
     }
 
     private void checkCondition(boolean condition, String message) throws MFParseException {
@@ -763,25 +998,14 @@ public class MFParser {
             finalMsg.append(message);
             finalMsg.append("\n");
             if (position != EOF) {
-                finalMsg.append(input.buffer.substring(0, position));
+                input.appendTo(finalMsg, 0, position);
                 finalMsg.append("^^^");
-                finalMsg.append(input.buffer.substring(position));
+                input.appendTo(finalMsg, position, input.length());
             } else {
-                finalMsg.append(input.buffer);
+                input.appendTo(finalMsg, 0, input.length());
                 finalMsg.append("^^^");
             }
         }
         throw new MFParseException(finalMsg.toString(), input.getPosition());
     }
-
-    private String peekWithRegExp(Pattern pattern) {
-        StringView sv = new StringView(input.buffer, input.getPosition());
-        Matcher m = pattern.matcher(sv);
-        boolean found = m.find();
-        if (found) {
-            input.skip(m.group().length());
-            return m.group();
-        }
-        return null;
-    }
 }
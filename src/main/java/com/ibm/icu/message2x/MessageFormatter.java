@@ -163,7 +163,7 @@ public class MessageFormatter {
         } else {
             this.pattern = builder.pattern;
             try {
-                this.dataModel = MFParser.parse(pattern);
+                this.dataModel = MFParser.parse(pattern, builder.limits);
             } catch (MFParseException pe) {
                 throw new IllegalArgumentException(""
                         + "Parse error:\n"
@@ -171,7 +171,8 @@ public class MessageFormatter {
                         + "Error: " + pe.getMessage() + "\n");
             }
         }
-        modelFormatter = new MFDataModelFormatter(dataModel, locale, functionRegistry);
+        modelFormatter =
+                new MFDataModelFormatter(dataModel, locale, functionRegistry, builder.limits);
     }
 
     /**
@@ -256,19 +257,152 @@ public class MessageFormatter {
     }
 
     /**
-     * Not yet implemented: formats a map of objects by iterating over the MessageFormat's
-     * pattern, with the plain text “as is” and the arguments replaced by the formatted objects.
+     * Formats a map of objects by iterating over the MessageFormat's pattern,
+     * with the plain text “as is” and the arguments replaced by the formatted objects,
+     * and appends the result to an {@link Appendable}.
+     *
+     * <p>The text and the formatted values are appended directly, without building
+     * an intermediate string for the whole message.</p>
+     *
+     * @param <A> the type of the {@code Appendable}.
+     * @param arguments a map of objects to be formatted and substituted.
+     * @param appendable where to append the formatted message.
+     * @return the same {@code appendable}, for chaining.
+     *
+     * @throws IllegalArgumentException when something goes wrong
+     *         (for example wrong argument type, or null arguments, etc.)
+     * @throws java.io.UncheckedIOException when appending to {@code appendable} fails.
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public <A extends Appendable> A formatTo(Map<String, Object> arguments, A appendable) {
+        return modelFormatter.formatTo(arguments, appendable);
+    }
+
+    /**
+     * Formats a map of objects by iterating over the MessageFormat's pattern,
+     * with the plain text “as is” and the arguments replaced by the formatted objects.
+     *
+     * <p>Unlike {@link #formatToString(Map)}, the result also knows where the placeholders
+     * and their fields (for example the integer part of a number) are in the final message.</p>
      *
      * @param arguments a map of objects to be formatted and substituted.
      * @return the {@link FormattedMessage} class representing the message with parameters replaced.
      *
+     * @throws IllegalArgumentException when something goes wrong
+     *         (for example wrong argument type, or null arguments, etc.)
+     *
      * @internal ICU 72 technology preview
      * @deprecated This API is for technology preview only.
      */
     @Deprecated
-    @SuppressWarnings("static-method")
     public FormattedMessage format(Map<String, Object> arguments) {
-        throw new RuntimeException("Not yet implemented.");
+        return modelFormatter.formatToMessage(arguments);
+    }
+
+    /**
+     * Get the names of the variables used by the message, in the order expected by
+     * {@link #format(Object[])} and {@link #formatTo(Object[], Appendable)}.
+     *
+     * @return the argument slots.
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public ArgumentSlots getArgumentSlots() {
+        return modelFormatter.getArgumentSlots();
+    }
+
+    /**
+     * Formats an array of objects, indexed by the slots reported by {@link #getArgumentSlots()},
+     * and appends the result to an {@link Appendable}.
+     *
+     * <p>Same result as {@link #formatTo(Map, Appendable)} with a map from the slot names
+     * to the values in the array, but the variables are not looked up by name.
+     * The array is only read, so it can be reused between calls.</p>
+     *
+     * @param <A> the type of the {@code Appendable}.
+     * @param arguments the objects to be formatted and substituted, by slot.
+     *        Can be longer than the number of slots, the extra values are ignored.
+     * @param appendable where to append the formatted message.
+     * @return the same {@code appendable}, for chaining.
+     *
+     * @throws IllegalArgumentException when something goes wrong
+     *         (for example wrong argument type, or fewer arguments than slots, etc.)
+     * @throws java.io.UncheckedIOException when appending to {@code appendable} fails.
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public <A extends Appendable> A formatTo(Object[] arguments, A appendable) {
+        return modelFormatter.formatTo(arguments, appendable);
+    }
+
+    /**
+     * Formats an array of objects, indexed by the slots reported by {@link #getArgumentSlots()}.
+     *
+     * <p>Same result as {@link #format(Map)} with a map from the slot names
+     * to the values in the array, but the variables are not looked up by name.</p>
+     *
+     * @param arguments the objects to be formatted and substituted, by slot.
+     *        Can be longer than the number of slots, the extra values are ignored.
+     * @return the {@link FormattedMessage} class representing the message with parameters replaced.
+     *
+     * @throws IllegalArgumentException when something goes wrong
+     *         (for example wrong argument type, or fewer arguments than slots, etc.)
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public FormattedMessage format(Object[] arguments) {
+        return modelFormatter.formatToMessage(arguments);
+    }
+
+    /**
+     * Formats a map of objects, like {@link #formatToString(Map)}, using the buffers
+     * of a reusable {@link FormatContext}.
+     *
+     * @param context the context, owned by the current thread.
+     * @param arguments a map of objects to be formatted and substituted.
+     * @return the string representing the message with parameters replaced.
+     *
+     * @throws IllegalArgumentException when something goes wrong
+     *         (for example wrong argument type, or null arguments, etc.)
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public String formatToString(FormatContext context, Map<String, Object> arguments) {
+        return modelFormatter.formatToString(context, arguments);
+    }
+
+    /**
+     * Formats an array of objects, indexed by the slots reported by {@link #getArgumentSlots()},
+     * using the buffers of a reusable {@link FormatContext}.
+     *
+     * <p>This is the fastest way to format a message many times: the variables are not looked
+     * up by name, and with strings as arguments the only allocation is the result string.</p>
+     *
+     * @param context the context, owned by the current thread.
+     * @param arguments the objects to be formatted and substituted, by slot.
+     *        Can be longer than the number of slots, the extra values are ignored.
+     * @return the string representing the message with parameters replaced.
+     *
+     * @throws IllegalArgumentException when something goes wrong
+     *         (for example wrong argument type, or fewer arguments than slots, etc.)
+     *
+     * @internal ICU 72 technology preview
+     * @deprecated This API is for technology preview only.
+     */
+    @Deprecated
+    public String formatToString(FormatContext context, Object[] arguments) {
+        return modelFormatter.formatToString(context, arguments);
     }
 
     /**
@@ -283,6 +417,7 @@ public class MessageFormatter {
         private String pattern = null;
         private MFFunctionRegistry functionRegistry = MFFunctionRegistry.builder().build();
         private MFDataModel.Message dataModel = null;
+        private MFLimits limits = MFLimits.NONE;
 
         // Prevent direct creation
         private Builder() {}
@@ -357,6 +492,22 @@ public class MessageFormatter {
             return this;
         }
 
+        /**
+         * Sets the limits checked when parsing, building and formatting the message,
+         * for messages that are not trusted. There are no limits by default.
+         *
+         * @param limits the limits to set.
+         * @return the builder, for fluent use.
+         *
+         * @internal ICU 75 technology preview
+         * @deprecated This API is for technology preview only.
+         */
+        @Deprecated
+        public Builder setLimits(MFLimits limits) {
+            this.limits = limits == null ? MFLimits.NONE : limits;
+            return this;
+        }
+
         /**
          * Builds an instance of {@link MessageFormatter}.
          *
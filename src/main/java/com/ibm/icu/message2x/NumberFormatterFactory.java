@@ -20,6 +20,7 @@ import com.ibm.icu.text.PluralRules.PluralType;
 import com.ibm.icu.util.CurrencyAmount;
 import com.ibm.icu.util.MeasureUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -69,20 +70,28 @@ class NumberFormatterFactory implements FormatterFactory, SelectorFactory {
                 pluralType = PluralType.CARDINAL;
         }
 
-        PluralRules rules = PluralRules.forLocale(locale, pluralType);
+        PluralRules rules = PLURAL_RULES.get(Arrays.asList(locale, pluralType),
+                key -> PluralRules.forLocale(locale, pluralType));
         return new PluralSelectorImpl(locale, rules, fixedOptions, kind);
     }
 
-    static class NumberFormatterImpl implements Formatter {
+    static class NumberFormatterImpl implements Formatter, ThreadSafeFunction {
+        // Messages usually use only a few distinct values for the variable options
+        private static final int MAX_CACHED_FORMATTERS = 16;
+
         private final Locale locale;
         private final Map<String, Object> fixedOptions;
         private final LocalizedNumberFormatter icuFormatter;
         private final String kind;
         final boolean advanced;
+        // The formatters built for the fixed options merged with variable ones,
+        // keyed by the values of the variable options that change the formatter.
+        private final BoundedCache<List<Object>, LocalizedNumberFormatter> cache =
+                new BoundedCache<>(MAX_CACHED_FORMATTERS);
 
         NumberFormatterImpl(Locale locale, Map<String, Object> fixedOptions, String kind) {
             this.locale = locale;
-            this.fixedOptions = new HashMap<>(fixedOptions);
+            this.fixedOptions = OptUtils.snapshot(fixedOptions);
             String skeleton = OptUtils.getString(fixedOptions, "icu:skeleton");
             boolean fancy = skeleton != null;
             this.icuFormatter = formatterForOptions(locale, fixedOptions, kind);
@@ -107,16 +116,18 @@ class NumberFormatterFactory implements FormatterFactory, SelectorFactory {
          */
         @Override
         public FormattedPlaceholder format(Object toFormat, Map<String, Object> variableOptions) {
-            LocalizedNumberFormatter realFormatter;
-            if (variableOptions.isEmpty()) {
-                realFormatter = this.icuFormatter;
-            } else {
-                Map<String, Object> mergedOptions = new HashMap<>(fixedOptions);
-                mergedOptions.putAll(variableOptions);
-                // This is really wasteful, as we don't use the existing
-                // formatter if even one option is variable.
-                // We can optimize, but for now will have to do.
-                realFormatter = formatterForOptions(locale, mergedOptions, kind);
+            LocalizedNumberFormatter realFormatter = this.icuFormatter;
+            List<Object> key = variableOptions.isEmpty()
+                    ? null
+                    : OptUtils.cacheKey(variableOptions, FORMATTER_OPTIONS);
+            if (key == OptUtils.NOT_CACHEABLE) {
+                realFormatter = formatterForMergedOptions(variableOptions);
+            } else if (key != null) {
+                realFormatter = cache.get(key);
+                if (realFormatter == null) {
+                    realFormatter = formatterForMergedOptions(variableOptions);
+                    cache.put(key, realFormatter);
+                }
             }
 
             Integer offset = OptUtils.getInteger(variableOptions, "icu:offset");
@@ -140,6 +151,11 @@ class NumberFormatterFactory implements FormatterFactory, SelectorFactory {
             } else if (toFormat instanceof BigDecimal) {
                 BigDecimal bd = (BigDecimal) toFormat;
                 result = realFormatter.format(bd.subtract(BigDecimal.valueOf(offset)));
+            } else if (toFormat instanceof java.math.BigDecimal) {
+                // Also what the integer literals too big for a long are parsed to
+                java.math.BigDecimal bd = (java.math.BigDecimal) toFormat;
+                result = realFormatter.format(
+                        bd.subtract(java.math.BigDecimal.valueOf(offset)));
             } else if (toFormat instanceof Number) {
                 result = realFormatter.format(((Number) toFormat).doubleValue() - offset);
             } else if (toFormat instanceof CurrencyAmount) {
@@ -157,13 +173,22 @@ class NumberFormatterFactory implements FormatterFactory, SelectorFactory {
             }
             return new FormattedPlaceholder(toFormat, result);
         }
+
+        private LocalizedNumberFormatter formatterForMergedOptions(
+                Map<String, Object> variableOptions) {
+            Map<String, Object> mergedOptions = new HashMap<>(fixedOptions);
+            mergedOptions.putAll(variableOptions);
+            return formatterForOptions(locale, mergedOptions, kind);
+        }
     }
 
-    private static class PluralSelectorImpl implements Selector {
-        private static final String NO_MATCH = "\uFFFDNO_MATCH\uFFFE"; // Unlikely to show in a key
+    private static class PluralSelectorImpl implements Selector, ThreadSafeFunction {
         private final PluralRules rules;
-        private Map<String, Object> fixedOptions;
-        private LocalizedNumberFormatter icuFormatter;
+        private final Map<String, Object> fixedOptions;
+        private final LocalizedNumberFormatter icuFormatter;
+        // The keys are the same list for all the calls from the same message,
+        // so we classify them once and keep the last one.
+        private volatile PluralKeys lastKeys;
 
         private PluralSelectorImpl(
                 Locale locale, PluralRules rules, Map<String, Object> fixedOptions, String kind) {
@@ -174,6 +199,8 @@ class NumberFormatterFactory implements FormatterFactory, SelectorFactory {
 
         /**
          * {@inheritDoc}
+         *
+         * <p>The order is exact values, plural category, catch-all.</p>
          */
         @Override
         public List<String> matches(
@@ -182,56 +209,45 @@ class NumberFormatterFactory implements FormatterFactory, SelectorFactory {
             if (value == null) {
                 return result;
             }
-            for (String key : keys) {
-                if (matches(value, key, variableOptions)) {
-                    result.add(key);
-                } else {
-                    result.add(NO_MATCH);
-                }
-            }
-
-            result.sort(PluralSelectorImpl::pluralComparator);
-            return result;
-        }
+            PluralKeys pluralKeys = classifyKeys(keys);
 
-        // The order is exact values, key, other
-        // There is no need to be very strict, as these are keys that are already equal
-        // So we will not get to compare "1" vs "2", or "one" vs "few".
-        // TODO: This is quite ugly, change when time.
-        private static int pluralComparator(String o1, String o2) {
-            if (o1.equals(o2)) {
-                return 0;
-            }
-            if (NO_MATCH.equals(o1)) {
-                return 1;
-            }
-            if (NO_MATCH.equals(o2)) {
-                return -1;
-            }
-            // * sorts last
-            if ("*".equals(o1)) {
-                return 1;
-            }
-            if ("*".equals(o2)) {
-                return -1;
+            if (value instanceof FormattedPlaceholder) {
+                FormattedPlaceholder fph = (FormattedPlaceholder) value;
+                value = fph.getInput();
             }
-            // Numbers sort first
-            if (OptUtils.asNumber(o1) != null) {
-                return -1;
+            if (value instanceof Number) {
+                double valToCheck = ((Number) value).doubleValue();
+                // Exact numeric matches first
+                for (int i = 0; i < pluralKeys.kinds.length; i++) {
+                    if (pluralKeys.kinds[i] == PluralKeys.NUMBER
+                            && pluralKeys.numbers[i] == valToCheck) {
+                        result.add(keys.get(i));
+                    }
+                }
+                // Then the plural category, computed only once
+                if (pluralKeys.hasCategories) {
+                    String category = pluralCategory(valToCheck, variableOptions);
+                    // "other" is handled by the catch-all
+                    if (!category.equals("other")) {
+                        for (int i = 0; i < pluralKeys.kinds.length; i++) {
+                            if (pluralKeys.kinds[i] == PluralKeys.CATEGORY
+                                    && category.equals(keys.get(i))) {
+                                result.add(keys.get(i));
+                            }
+                        }
+                    }
+                }
             }
-            if (OptUtils.asNumber(o2) != null) {
-                return 1;
+            // The catch-all matches everything, and comes last
+            for (int i = 0; i < pluralKeys.kinds.length; i++) {
+                if (pluralKeys.kinds[i] == PluralKeys.CATCH_ALL) {
+                    result.add(keys.get(i));
+                }
             }
-            // At this point they are both strings
-            // We should never get here, so the order does not really matter
-            return o1.compareTo(o2);
+            return result;
         }
 
-        private boolean matches(Object value, String key, Map<String, Object> variableOptions) {
-            if ("*".equals(key)) {
-                return true;
-            }
-
+        private String pluralCategory(double value, Map<String, Object> variableOptions) {
             Integer offset = OptUtils.getInteger(variableOptions, "icu:offset");
             if (offset == null && fixedOptions != null) {
                 offset = OptUtils.getInteger(fixedOptions, "icu:offset");
@@ -239,34 +255,77 @@ class NumberFormatterFactory implements FormatterFactory, SelectorFactory {
             if (offset == null) {
                 offset = 0;
             }
+            FormattedNumber formatted = icuFormatter.format(value - offset);
+            return rules.select(formatted);
+        }
 
-            Number valToCheck = Double.MIN_VALUE;
-            if (value instanceof FormattedPlaceholder) {
-                FormattedPlaceholder fph = (FormattedPlaceholder) value;
-                value = fph.getInput();
+        private PluralKeys classifyKeys(List<String> keys) {
+            PluralKeys result = lastKeys;
+            if (result == null || result.keys != keys) {
+                result = new PluralKeys(keys);
+                lastKeys = result;
             }
+            return result;
+        }
+    }
 
-            if (value instanceof Number) {
-                valToCheck = ((Number) value).doubleValue();
-            } else {
-                return false;
+    /** The keys of a plural selection, classified as numbers, plural categories, or catch-all. */
+    private static class PluralKeys {
+        static final byte CATEGORY = 0;
+        static final byte NUMBER = 1;
+        static final byte CATCH_ALL = 2;
+
+        final List<String> keys;
+        final byte[] kinds;
+        final double[] numbers;
+        final boolean hasCategories;
+
+        PluralKeys(List<String> keys) {
+            this.keys = keys;
+            this.kinds = new byte[keys.size()];
+            this.numbers = new double[keys.size()];
+            boolean categories = false;
+            for (int i = 0; i < kinds.length; i++) {
+                String key = keys.get(i);
+                Number keyNrVal;
+                if ("*".equals(key)) {
+                    kinds[i] = CATCH_ALL;
+                } else if ((keyNrVal = OptUtils.asNumber(key)) != null) {
+                    kinds[i] = NUMBER;
+                    numbers[i] = keyNrVal.doubleValue();
+                } else {
+                    kinds[i] = CATEGORY;
+                    categories = true;
+                }
             }
+            this.hasCategories = categories;
+        }
+    }
 
-            Number keyNrVal = OptUtils.asNumber(key);
-            if (keyNrVal != null && valToCheck.doubleValue() == keyNrVal.doubleValue()) {
-                return true;
-            }
+    // Shared by all the messages. Both are immutable.
+    static final IcuObjectCache<List<Object>, LocalizedNumberFormatter> NUMBER_FORMATTERS =
+            new IcuObjectCache<>(512);
+    static final IcuObjectCache<List<Object>, PluralRules> PLURAL_RULES =
+            new IcuObjectCache<>(128);
 
-            FormattedNumber formatted = icuFormatter.format(valToCheck.doubleValue() - offset);
-            String match = rules.select(formatted);
-            if (match.equals("other")) {
-                match = "*";
-            }
-            return match.equals(key);
+    // The options read by createFormatterForOptions
+    private static final String[] FORMATTER_OPTIONS = {"icu:skeleton", "notation",
+        "compactDisplay", "style", "minimumFractionDigits", "maximumFractionDigits",
+        "minimumSignificantDigits", "numberingSystem", "minimumIntegerDigits",
+        "maximumSignificantDigits", "signDisplay", "useGrouping"};
+
+    private static LocalizedNumberFormatter formatterForOptions(
+            Locale locale, Map<String, Object> fixedOptions, String kind) {
+        List<Object> optionsKey = OptUtils.cacheKey(fixedOptions, FORMATTER_OPTIONS);
+        if (optionsKey == OptUtils.NOT_CACHEABLE) {
+            return createFormatterForOptions(locale, fixedOptions, kind);
         }
+        List<Object> key = Arrays.asList(kind, locale, optionsKey);
+        return NUMBER_FORMATTERS.get(
+                key, k -> createFormatterForOptions(locale, fixedOptions, kind));
     }
 
-    private static LocalizedNumberFormatter formatterForOptions(
+    private static LocalizedNumberFormatter createFormatterForOptions(
             Locale locale, Map<String, Object> fixedOptions, String kind) {
         UnlocalizedNumberFormatter nf;
         String skeleton = OptUtils.getString(fixedOptions, "icu:skeleton");
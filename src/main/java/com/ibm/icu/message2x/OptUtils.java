@@ -3,9 +3,23 @@
 
 package com.ibm.icu.message2x;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 class OptUtils {
+    // Longer than any long. Converting an integer to BigDecimal is quadratic in the number
+    // of digits, so the longer ones are converted to double, like the numbers with a fraction.
+    static final int MAX_EXACT_DIGITS = 100;
+
+    /** Returned by {@link #cacheKey} when the options can't be compared by value. */
+    static final List<Object> NOT_CACHEABLE = Collections.unmodifiableList(new ArrayList<>());
+
     private OptUtils() {}
 
     static Number asNumber(Object value) {
@@ -13,8 +27,14 @@ class OptUtils {
             return (Number) value;
         }
         if (value instanceof CharSequence) {
+            CharSequence text = (CharSequence) value;
+            Number result = parseNumberLiteral(text);
+            if (result != null || !mightBeDouble(text)) {
+                return result;
+            }
+            // Rare: something Java accepts but MessageFormat doesn't, like "+1", ".5", "1d"
             try {
-                return Double.parseDouble(value.toString());
+                return Double.parseDouble(text.toString());
             } catch (NumberFormatException e) {
                 /* just ignore, we want to try more */
             }
@@ -22,6 +42,115 @@ class OptUtils {
         return null;
     }
 
+    /**
+     * Parses a MessageFormat 2 number literal, without exceptions.
+     * The integers that fit are returned as {@link Long}, the other integers of up to
+     * {@link #MAX_EXACT_DIGITS} digits as {@link BigDecimal}, and the longer integers and
+     * the numbers with fraction or exponent as {@link Double}. Linear in the length of the text.
+     *
+     * <pre>
+     * number-literal = ["-"] (%x30 / (%x31-39 *DIGIT)) ["." 1*DIGIT] [%i"e" ["-" / "+"] 1*DIGIT]
+     * </pre>
+     *
+     * @return the number, or null if the text is not a number literal.
+     */
+    static Number parseNumberLiteral(CharSequence text) {
+        int length = text.length();
+        if (StringUtils.numberLiteralEnd(text, 0) != length) {
+            return null;
+        }
+        int integerStart = text.charAt(0) == '-' ? 1 : 0;
+        int integerEnd = integerStart;
+        while (integerEnd < length && StringUtils.isDigit(text.charAt(integerEnd))) {
+            integerEnd++;
+        }
+        if (integerEnd != length || integerEnd - integerStart > MAX_EXACT_DIGITS) {
+            // Fraction or exponent, or too long. Valid, so this does not throw.
+            return Double.parseDouble(text.toString());
+        }
+        if (integerEnd - integerStart <= 18) {
+            // Can't overflow
+            long result = 0;
+            for (int i = integerStart; i < length; i++) {
+                result = result * 10 + (text.charAt(i) - '0');
+            }
+            if (integerStart == 0) {
+                return result;
+            }
+            // Keep the sign of "-0"
+            return result == 0 ? (Number) (-0.0d) : (Number) (-result);
+        }
+        BigDecimal result = new BigDecimal(text.toString());
+        return result.toBigInteger().bitLength() < 64 ? (Number) result.longValue() : result;
+    }
+
+    // Quick check to skip Double.parseDouble (and the exception) for most non-numbers
+    private static boolean mightBeDouble(CharSequence text) {
+        int pos = 0;
+        int length = text.length();
+        while (pos < length && text.charAt(pos) <= ' ') { // same as String.trim()
+            pos++;
+        }
+        if (pos < length && (text.charAt(pos) == '-' || text.charAt(pos) == '+')) {
+            pos++;
+        }
+        if (pos == length) {
+            return false;
+        }
+        char ch = text.charAt(pos);
+        return (ch >= '0' && ch <= '9') || ch == '.' || ch == 'N' || ch == 'I';
+    }
+
+    /**
+     * Returns a copy of the options that the caller can't change.
+     * The {@link OptionMap}s are never changed after creation, so they are not copied.
+     */
+    static Map<String, Object> snapshot(Map<String, Object> options) {
+        return options instanceof OptionMap ? options : new HashMap<>(options);
+    }
+
+    /**
+     * Returns the values of the named options, in the order of the names (null if missing).
+     * Used as cache key: the options a function does not read don't change what it creates.
+     *
+     * <p>The values are the ones {@link #getString} and {@link #getInteger} read: text,
+     * as {@code String}, and numbers. The other values (for example the
+     * {@link FormattedPlaceholder} of a local variable) are read as missing, so they are null
+     * in the key too. Numbers of types without value equality make the key
+     * {@link #NOT_CACHEABLE}.</p>
+     *
+     * @return the values, null if none of the options is there, or {@link #NOT_CACHEABLE}.
+     */
+    static List<Object> cacheKey(Map<String, Object> options, String[] names) {
+        Object[] values = null;
+        for (int i = 0; i < names.length; i++) {
+            Object value = keyValue(options.get(names[i]));
+            if (value == NOT_CACHEABLE) {
+                return NOT_CACHEABLE;
+            }
+            if (value != null) {
+                if (values == null) {
+                    values = new Object[names.length];
+                }
+                values[i] = value;
+            }
+        }
+        return values == null ? null : Arrays.asList(values);
+    }
+
+    private static Object keyValue(Object value) {
+        if (value instanceof String || value instanceof Long || value instanceof Integer
+                || value instanceof Double || value instanceof BigDecimal
+                || value instanceof BigInteger || value instanceof com.ibm.icu.math.BigDecimal
+                || value instanceof Short || value instanceof Byte || value instanceof Float) {
+            return value;
+        }
+        if (value instanceof CharSequence) {
+            return value.toString();
+        }
+        return value instanceof Number ? NOT_CACHEABLE : null;
+    }
+
     static Integer getInteger(Map<String, Object> options, String key) {
         Object value = options.get(key);
         if (value == null) {
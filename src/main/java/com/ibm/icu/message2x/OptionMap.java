@@ -0,0 +1,146 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The options of a function call, as a read-only {@link Map} view over two arrays.
+ *
+ * <p>The array of names is created once, when the message is compiled, and shared by all
+ * the calls. The index of a name is its id. Only the array of values is created per call.
+ * This replaces a {@code HashMap} (with its table and one node per option) for each
+ * function call.</p>
+ *
+ * <p>{@link #hashCode()} and {@link #equals(Object)} follow the {@link Map} contract,
+ * without allocating. Don't use option maps as cache keys: the values can be
+ * {@link FormattedPlaceholder}s, compared by identity. The caches key on
+ * {@link OptUtils#cacheKey}.</p>
+ */
+final class OptionMap extends AbstractMap<String, Object> {
+    private final String[] names;
+    private final Object[] values;
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    /**
+     * @param names the option names, no duplicates. Not copied, never changed.
+     * @param values the option values, same order as the names. Not copied.
+     */
+    OptionMap(String[] names, Object[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    private int indexOf(Object name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public int size() {
+                    return names.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < names.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, Object> next() {
+                            if (next >= names.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, Object> result =
+                                    new SimpleImmutableEntry<>(names[next], values[next]);
+                            next++;
+                            return result;
+                        }
+                    };
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    // Same as AbstractMap.hashCode, without the entries and the iterator
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (int i = 0; i < names.length; i++) {
+            result += names[i].hashCode() ^ Objects.hashCode(values[i]);
+        }
+        return result;
+    }
+
+    // Same as AbstractMap.equals, without the entries and the iterator
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        if (!(other instanceof Map)) {
+            return false;
+        }
+        Map<?, ?> map = (Map<?, ?>) other;
+        if (map.size() != names.length) {
+            return false;
+        }
+        try {
+            for (int i = 0; i < names.length; i++) {
+                Object value = values[i];
+                if (value == null) {
+                    if (map.get(names[i]) != null || !map.containsKey(names[i])) {
+                        return false;
+                    }
+                } else if (!value.equals(map.get(names[i]))) {
+                    return false;
+                }
+            }
+        } catch (ClassCastException | NullPointerException e) {
+            return false;
+        }
+        return true;
+    }
+}
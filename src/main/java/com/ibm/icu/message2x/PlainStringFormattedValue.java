@@ -8,6 +8,7 @@ import com.ibm.icu.text.FormattedValue;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
 
 /**
  * Very-very rough implementation of FormattedValue, packaging a string.
@@ -90,8 +91,6 @@ public class PlainStringFormattedValue implements FormattedValue {
     }
 
     /**
-     * Not yet implemented.
-     *
      * {@inheritDoc}
      *
      * @internal Visible For Testing.
@@ -100,12 +99,11 @@ public class PlainStringFormattedValue implements FormattedValue {
     @Deprecated
     @Override
     public boolean nextPosition(ConstrainedFieldPosition cfpos) {
-        throw new RuntimeException("nextPosition not yet implemented");
+        // A plain string has no fields
+        return false;
     }
 
     /**
-     * Not yet implemented.
-     *
      * {@inheritDoc}
      *
      * @internal Visible For Testing.
@@ -114,7 +112,7 @@ public class PlainStringFormattedValue implements FormattedValue {
     @Deprecated
     @Override
     public AttributedCharacterIterator toCharacterIterator() {
-        throw new RuntimeException("toCharacterIterator not yet implemented");
+        return new AttributedString(value).getIterator();
     }
 
     /**
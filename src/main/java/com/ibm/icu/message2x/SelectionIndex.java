@@ -0,0 +1,289 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the variant of a {@code .match} message, given the keys matched by each selector
+ * in preferential order (the {@code pref} list of lists from the spec).
+ *
+ * <p>The index is built once from the keys of the variants: for each selector and for each
+ * distinct key there is a bitset of the variants using that key at that position, and one more
+ * for the variants using the catch-all key.</p>
+ *
+ * <p>Sorting the variants with a stable sort, from the last selector to the first one
+ * (as the spec does), is the same as ordering them lexicographically by their
+ * {@code (pref index for selector 0, pref index for selector 1, ...)} tuple,
+ * with the catch-all key coming after all the matched keys, and the source order
+ * breaking the ties. So instead of sorting we do a depth-first search in that order,
+ * intersecting the bitsets as we go, and the first variant we reach is the one the spec selects.</p>
+ */
+final class SelectionIndex {
+    private static final String CATCH_ALL = "*";
+
+    private final int selectorCount;
+    private final int words;
+    // For each selector, the distinct keys at that position, in source order
+    private final List<List<String>> selectorKeys;
+    // For each selector, the key to the index of the key bitset
+    private final Map<String, Integer>[] keyIds;
+    // [selector][key id][word], the variants using that key at that position
+    private final long[][][] keyBits;
+    // [selector][word], the variants using the catch-all key at that position
+    private final long[][] catchAllBits;
+    // All the variants
+    private final long[] allVariants;
+
+    /**
+     * Builds the index.
+     *
+     * @param variantKeys the keys of the variants, in source order, catch-all keys as {@code null}.
+     * @param selectorCount the number of selectors.
+     */
+    @SuppressWarnings("unchecked")
+    SelectionIndex(String[][] variantKeys, int selectorCount) {
+        this.selectorCount = selectorCount;
+        this.words = (variantKeys.length + 63) >>> 6;
+        List<List<String>> allKeys = new ArrayList<>(selectorCount);
+        this.keyIds = new Map[selectorCount];
+        this.keyBits = new long[selectorCount][][];
+        this.catchAllBits = new long[selectorCount][words];
+        for (int i = 0; i < selectorCount; i++) {
+            Map<String, Integer> ids = new LinkedHashMap<>();
+            List<long[]> bits = new ArrayList<>();
+            boolean hasCatchAll = false;
+            for (int v = 0; v < variantKeys.length; v++) {
+                String key = variantKeys[v][i];
+                if (key == null) {
+                    catchAllBits[i][v >>> 6] |= 1L << v;
+                    hasCatchAll = true;
+                    continue;
+                }
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(key, id);
+                    bits.add(new long[words]);
+                }
+                bits.get(id)[v >>> 6] |= 1L << v;
+            }
+            List<String> keys = new ArrayList<>(ids.keySet());
+            if (hasCatchAll && !ids.containsKey(CATCH_ALL)) {
+                keys.add(CATCH_ALL);
+            }
+            allKeys.add(Collections.unmodifiableList(keys));
+            keyIds[i] = new HashMap<>(ids);
+            keyBits[i] = bits.toArray(new long[bits.size()][]);
+        }
+        this.selectorKeys = Collections.unmodifiableList(allKeys);
+        this.allVariants = new long[words];
+        Arrays.fill(allVariants, -1L);
+        if ((variantKeys.length & 63) != 0) {
+            allVariants[words - 1] = (1L << variantKeys.length) - 1;
+        }
+    }
+
+    /**
+     * Returns the distinct keys used by the variants for a selector, in source order.
+     * The catch-all key is included (as {@code "*"}) if at least one variant uses it.
+     */
+    List<String> getKeys(int selector) {
+        return selectorKeys.get(selector);
+    }
+
+    /**
+     * Returns the index of the selected variant, or {@code -1} if no variant matches.
+     *
+     * @param pref for each selector, the matching keys in preferential order.
+     */
+    int select(List<List<String>> pref) {
+        return select(pref, new long[selectorCount][words]);
+    }
+
+    /**
+     * Same as {@link #select(List)}, with the scratch space provided by the caller.
+     *
+     * @param pref for each selector, the matching keys in preferential order.
+     * @param scratch at least one bitset per selector, each of at least {@link #words()} longs.
+     */
+    int select(List<List<String>> pref, long[][] scratch) {
+        return select(0, pref, allVariants, scratch);
+    }
+
+    /** The number of longs in the bitsets of variants. */
+    int words() {
+        return words;
+    }
+
+    private int select(int level, List<List<String>> pref, long[] current, long[][] scratch) {
+        if (level == selectorCount) {
+            return firstBit(current);
+        }
+        long[] next = scratch[level];
+        Map<String, Integer> ids = keyIds[level];
+        List<String> matches = pref.get(level);
+        for (int k = 0; k < matches.size(); k++) {
+            Integer id = ids.get(matches.get(k));
+            if (id != null && intersect(current, keyBits[level][id], next)) {
+                int result = select(level + 1, pref, next, scratch);
+                if (result >= 0) {
+                    return result;
+                }
+            }
+        }
+        if (intersect(current, catchAllBits[level], next)) {
+            return select(level + 1, pref, next, scratch);
+        }
+        return -1;
+    }
+
+    // Stores a & b in result, and returns true if the result is not empty.
+    private boolean intersect(long[] a, long[] b, long[] result) {
+        long any = 0;
+        for (int w = 0; w < words; w++) {
+            result[w] = a[w] & b[w];
+            any |= result[w];
+        }
+        return any != 0;
+    }
+
+    private int firstBit(long[] bits) {
+        for (int w = 0; w < words; w++) {
+            if (bits[w] != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(bits[w]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The "Filter Variants" and "Sort Variants" steps, implemented as described in the spec.
+     *
+     * <p>This is the reference the index is tested against, it is not used for formatting.</p>
+     *
+     * @param variantKeys the keys of the variants, in source order, catch-all keys as {@code null}.
+     * @param pref for each selector, the matching keys in preferential order.
+     * @return the index of the selected variant, or {@code -1} if no variant matches.
+     */
+    static int selectBySpec(String[][] variantKeys, List<List<String>> pref) {
+        // ====================================
+        // spec: ### Filter Variants
+        // ====================================
+
+        // spec: Let `vars` be a new empty list of _variants_.
+        List<Integer> vars = new ArrayList<>();
+        // spec: For each _variant_ `var` of the message:
+        for (int v = 0; v < variantKeys.length; v++) {
+            String[] var = variantKeys[v];
+            // spec: For each index `i` in `pref`:
+            int found = 0;
+            for (int i = 0; i < pref.size(); i++) {
+                // spec: Let `key` be the `var` key at position `i`.
+                String ks = var[i];
+                // spec: If `key` is the catch-all key `'*'`:
+                if (ks == null) {
+                    // spec: Continue the inner loop on `pref`.
+                    found++;
+                    continue;
+                }
+                // spec: Let `matches` be the list of strings at index `i` of `pref`.
+                List<String> matches = pref.get(i);
+                // spec: If `matches` includes `ks`:
+                if (matches.contains(ks)) {
+                    // spec: Continue the inner loop on `pref`.
+                    found++;
+                    continue;
+                } else {
+                    // spec: Else:
+                    // spec: Continue the outer loop on message _variants_.
+                    break;
+                }
+            }
+            if (found == pref.size()) {
+                // spec: Append `var` as the last element of the list `vars`.
+                vars.add(v);
+            }
+        }
+
+        // ====================================
+        // spec: ### Sort Variants
+        // ====================================
+        // spec: Let `sortable` be a new empty list of (integer, _variant_) tuples.
+        List<IntVarTuple> sortable = new ArrayList<>();
+        // spec: For each _variant_ `var` of `vars`:
+        for (int var : vars) {
+            // spec: Let `tuple` be a new tuple (-1, `var`).
+            IntVarTuple tuple = new IntVarTuple(-1, var);
+            // spec: Append `tuple` as the last element of the list `sortable`.
+            sortable.add(tuple);
+        }
+        // spec: Let `len` be the integer count of items in `pref`.
+        int len = pref.size();
+        // spec: Let `i` be `len` - 1.
+        int i = len - 1;
+        // spec: While `i` >= 0:
+        while (i >= 0) {
+            // spec: Let `matches` be the list of strings at index `i` of `pref`.
+            List<String> matches = pref.get(i);
+            // spec: Let `minpref` be the integer count of items in `matches`.
+            int minpref = matches.size();
+            // spec: For each tuple `tuple` of `sortable`:
+            for (IntVarTuple tuple : sortable) {
+                // spec: Let `matchpref` be an integer with the value `minpref`.
+                int matchpref = minpref;
+                // spec: Let `key` be the `tuple` _variant_ key at position `i`.
+                String ks = variantKeys[tuple.variant][i];
+                // spec: If `key` is not the catch-all key `'*'`:
+                if (ks != null) {
+                    // spec: Let `matchpref` be the integer position of `ks` in `matches`.
+                    matchpref = matches.indexOf(ks);
+                }
+                // spec: Set the `tuple` integer value as `matchpref`.
+                tuple.integer = matchpref;
+            }
+            // spec: Set `sortable` to be the result of calling the method `SortVariants(sortable)`.
+            sortable.sort(SelectionIndex::sortVariants);
+            // spec: Set `i` to be `i` - 1.
+            i--;
+        }
+        // spec: Let `var` be the _variant_ element of the first element of `sortable`.
+        return sortable.isEmpty() ? -1 : sortable.get(0).variant;
+    }
+
+    /* spec:
+     * `SortVariants` is a method whose single argument is
+     * a list of (integer, _variant_) tuples.
+     * It returns a list of (integer, _variant_) tuples.
+     * Any implementation of `SortVariants` is acceptable
+     * as long as it satisfies the following requirements:
+     *
+     * 1. Let `sortable` be an arbitrary list of (integer, _variant_) tuples.
+     * 1. Let `sorted` be `SortVariants(sortable)`.
+     * 1. `sorted` is the result of sorting `sortable` using the following comparator:
+     *    1. `(i1, v1)` <= `(i2, v2)` if and only if `i1 <= i2`.
+     * 1. The sort is stable (pairs of tuples from `sortable` that are equal
+     *    in their first element have the same relative order in `sorted`).
+     */
+    private static int sortVariants(IntVarTuple o1, IntVarTuple o2) {
+        // List.sort is stable, so there is nothing else to compare.
+        return Integer.compare(o1.integer, o2.integer);
+    }
+
+    private static class IntVarTuple {
+        int integer;
+        final int variant;
+
+        public IntVarTuple(int integer, int variant) {
+            this.integer = integer;
+            this.variant = variant;
+        }
+    }
+}
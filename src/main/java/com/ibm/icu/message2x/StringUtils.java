@@ -3,7 +3,64 @@
 
 package com.ibm.icu.message2x;
 
+/**
+ * The character classes of the MessageFormat 2 syntax.
+ *
+ * <p>The classes of the BMP characters are precomputed in a table (one bit per class),
+ * so the parser does one array access per character instead of a chain of range checks.
+ * The ranges are still here, in the {@code compute*} methods, used to build the table.</p>
+ */
 class StringUtils {
+    private static final int CONTENT = 1;
+    private static final int WHITESPACE = 1 << 1;
+    private static final int NAME_START = 1 << 2;
+    private static final int NAME_CHAR = 1 << 3;
+    private static final int TEXT = 1 << 4;
+    private static final int QUOTED = 1 << 5;
+    private static final int RESERVED = 1 << 6;
+    private static final int SIMPLE_START = 1 << 7;
+
+    // The classes of the BMP characters, a combination of the bits above
+    private static final byte[] BMP_CLASSES = new byte[0x10000];
+
+    static {
+        for (int cp = 0; cp < BMP_CLASSES.length; cp++) {
+            int classes = 0;
+            if (computeContentChar(cp)) {
+                classes |= CONTENT;
+            }
+            if (computeWhitespace(cp)) {
+                classes |= WHITESPACE;
+            }
+            if (computeNameStart(cp)) {
+                classes |= NAME_START;
+            }
+            if (computeNameChar(cp)) {
+                classes |= NAME_CHAR;
+            }
+            if (computeTextChar(cp)) {
+                classes |= TEXT;
+            }
+            if (computeQuotedChar(cp)) {
+                classes |= QUOTED;
+            }
+            if (computeReservedChar(cp)) {
+                classes |= RESERVED;
+            }
+            if (computeSimpleStartChar(cp)) {
+                classes |= SIMPLE_START;
+            }
+            BMP_CLASSES[cp] = (byte) classes;
+        }
+    }
+
+    // For the supplementary characters the class is all or nothing
+    private static boolean is(int cp, int characterClass, boolean supplementary) {
+        if (cp >= 0 && cp <= 0xFFFF) {
+            return (BMP_CLASSES[cp] & characterClass) != 0;
+        }
+        return supplementary && cp > 0xFFFF && cp <= 0x10FFFF;
+    }
 
     /*
      * abnf: content-char = %x01-08        ; omit NULL (%x00), HTAB (%x09) and LF (%x0A)
@@ -17,6 +74,10 @@ class StringUtils {
      * abnf:              / %xE000-10FFFF
      */
     static boolean isContentChar(int cp) {
+        return is(cp, CONTENT, true);
+    }
+
+    static boolean computeContentChar(int cp) {
         return (cp >= 0x0001 && cp <= 0x0008) // omit HTAB (%x09) and LF (%x0A)
                 || (cp >= 0x000B && cp <= 0x000C) // omit CR (%x0D)
                 || (cp >= 0x000E && cp <= 0x001F) // omit SP (%x20)
@@ -30,7 +91,11 @@ class StringUtils {
 
     // abnf: text-char = content-char / s / "." / "@" / "|"
     static boolean isTextChar(int cp) {
-        return isContentChar(cp) || isWhitespace(cp) || cp == '.' || cp == '@' || cp == '|';
+        return is(cp, TEXT, true);
+    }
+
+    static boolean computeTextChar(int cp) {
+        return computeContentChar(cp) || computeWhitespace(cp) || cp == '.' || cp == '@' || cp == '|';
     }
 
     // abnf: backslash = %x5C ; U+005C REVERSE SOLIDUS "\"
@@ -43,6 +108,10 @@ class StringUtils {
      * abnf: s = 1*( SP / HTAB / CR / LF / %x3000 )
      */
     static boolean isWhitespace(int cp) {
+        return is(cp, WHITESPACE, false);
+    }
+
+    static boolean computeWhitespace(int cp) {
         return cp == ' ' || cp == '\t' || cp == '\r' || cp == '\n' || cp == '\u3000';
     }
 
@@ -54,6 +123,10 @@ class StringUtils {
      * abnf:            / %xF900-FDCF / %xFDF0-FFFC / %x10000-EFFFF
      */
     static boolean isNameStart(int cp) {
+        return cp <= 0xEFFFF && is(cp, NAME_START, true);
+    }
+
+    static boolean computeNameStart(int cp) {
         return isAlpha(cp)
                 || cp == '_'
                 || (cp >= 0x00C0 && cp <= 0x00D6)
@@ -75,7 +148,11 @@ class StringUtils {
      * abnf:           / %xB7 / %x300-36F / %x203F-2040
      */
     static boolean isNameChar(int cp) {
-        return isNameStart(cp)
+        return cp <= 0xEFFFF && is(cp, NAME_CHAR, true);
+    }
+
+    static boolean computeNameChar(int cp) {
+        return computeNameStart(cp)
                 || isDigit(cp)
                 || cp == '-'
                 || cp == '.'
@@ -91,8 +168,12 @@ class StringUtils {
 
     // abnf: quoted-char = content-char / s / "." / "@" / "{" / "}"
     static boolean isQuotedChar(int cp) {
-        return isContentChar(cp)
-                || isWhitespace(cp)
+        return is(cp, QUOTED, true);
+    }
+
+    static boolean computeQuotedChar(int cp) {
+        return computeContentChar(cp)
+                || computeWhitespace(cp)
                 || cp == '.'
                 || cp == '@'
                 || cp == '{'
@@ -101,12 +182,20 @@ class StringUtils {
 
     // abnf: reserved-char = content-char / "."
     static boolean isReservedChar(int cp) {
-        return isContentChar(cp) || cp == '.';
+        return is(cp, RESERVED, true);
+    }
+
+    static boolean computeReservedChar(int cp) {
+        return computeContentChar(cp) || cp == '.';
     }
 
     static boolean isSimpleStartChar(int cp) {
-        return StringUtils.isContentChar(cp)
-                || StringUtils.isWhitespace(cp)
+        return is(cp, SIMPLE_START, true);
+    }
+
+    static boolean computeSimpleStartChar(int cp) {
+        return computeContentChar(cp)
+                || computeWhitespace(cp)
                 || cp == '@'
                 || cp == '|';
     }
@@ -128,6 +217,49 @@ class StringUtils {
         return cp == ':';
     }
 
+    /**
+     * Scans a number literal, the longest prefix of the text starting at {@code start}
+     * that matches the syntax (same as a regular expression match would).
+     *
+     * <pre>
+     * number-literal = ["-"] (%x30 / (%x31-39 *DIGIT)) ["." 1*DIGIT] [%i"e" ["-" / "+"] 1*DIGIT]
+     * </pre>
+     *
+     * @return the end of the number literal, or -1 if there is none at {@code start}.
+     */
+    static int numberLiteralEnd(CharSequence text, int start) {
+        int length = text.length();
+        int pos = start;
+        if (pos < length && text.charAt(pos) == '-') {
+            pos++;
+        }
+        if (pos >= length || !isDigit(text.charAt(pos))) {
+            return -1;
+        }
+        // A leading 0 is not followed by other digits
+        pos = text.charAt(pos) == '0' ? pos + 1 : skipDigits(text, pos);
+        if (pos + 1 < length && text.charAt(pos) == '.' && isDigit(text.charAt(pos + 1))) {
+            pos = skipDigits(text, pos + 1);
+        }
+        if (pos + 1 < length && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+            int exponent = pos + 1;
+            if (text.charAt(exponent) == '-' || text.charAt(exponent) == '+') {
+                exponent++;
+            }
+            if (exponent < length && isDigit(text.charAt(exponent))) {
+                pos = skipDigits(text, exponent);
+            }
+        }
+        return pos;
+    }
+
+    private static int skipDigits(CharSequence text, int pos) {
+        while (pos < text.length() && isDigit(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
     // abnf: private-start = "^" / "&"
     static boolean isPrivateAnnotationSigil(int cp) {
         return cp == '^' || cp == '&';
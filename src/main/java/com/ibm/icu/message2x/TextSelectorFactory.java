@@ -23,7 +23,7 @@ class TextSelectorFactory implements SelectorFactory {
         return new TextSelector();
     }
 
-    private static class TextSelector implements Selector {
+    private static class TextSelector implements Selector, ThreadSafeFunction {
         /**
          * {@inheritDoc}
          */
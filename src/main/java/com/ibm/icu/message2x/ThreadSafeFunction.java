@@ -0,0 +1,15 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+/**
+ * Marker interface for the functions ({@link Formatter}, {@link Selector}) that can be
+ * shared between threads (they are immutable, or they synchronize internally).
+ *
+ * <p>When all the options of a placeholder are known at build time the {@link MessageFormatter}
+ * creates such functions only once, and reuses them for all formatting calls.</p>
+ */
+interface ThreadSafeFunction {
+    // Marker only, no methods
+}
@@ -0,0 +1,113 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.dev.test.message2;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.message2x.MessageFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Formatting dates with the same {@link MessageFormatter} from several threads.
+ */
+@RunWith(JUnit4.class)
+@SuppressWarnings({"static-method", "javadoc"})
+public class DateTimeThreadingTest extends CoreTestFmwk {
+    private static final String[] PATTERNS = {
+        "Expires on {$exp :datetime dateStyle=full timeStyle=long}.",
+        "Expires on {$exp :datetime icu:skeleton=yMMMdEjms}.",
+        "Expires on {$exp :date style=$style}.",
+    };
+    // A day and a bit, so that all the fields change from one date to the next
+    private static final long STEP = 26 * 3600 * 1000L + 61 * 1000L + 7;
+    private static final long START = 1_600_000_000_000L;
+    private static final int DATE_COUNT = 500;
+
+    @Test
+    public void testMultithreaded() throws Exception {
+        final int threadCount = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (String pattern : PATTERNS) {
+            final MessageFormatter mf = MessageFormatter.builder().setPattern(pattern).build();
+            // The expected results, computed with a formatter that is not shared
+            MessageFormatter reference = MessageFormatter.builder().setPattern(pattern).build();
+            final String[] expected = new String[DATE_COUNT];
+            for (int i = 0; i < DATE_COUNT; i++) {
+                expected[i] = reference.formatToString(args(i));
+            }
+
+            List<Callable<String>> tasks = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                final int offset = t;
+                tasks.add(() -> {
+                    for (int count = 0; count < 4 * DATE_COUNT; count++) {
+                        int i = (count * 7 + offset) % DATE_COUNT;
+                        String actual = mf.formatToString(args(i));
+                        if (!expected[i].equals(actual)) {
+                            return "expected '" + expected[i] + "', got '" + actual + "'";
+                        }
+                    }
+                    return null;
+                });
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            try {
+                for (Future<String> result : executor.invokeAll(tasks)) {
+                    assertEquals(pattern, null, result.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkScaling() throws Exception {
+        final MessageFormatter mf = MessageFormatter.builder().setPattern(PATTERNS[0]).build();
+        final int iterations = 200_000;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        // 1, 2, 4, ... up to all the cores
+        for (int threadCount = 1; ; threadCount = Math.min(threadCount * 2, maxThreads)) {
+            List<Callable<String>> tasks = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                tasks.add(() -> {
+                    for (int i = 0; i < iterations; i++) {
+                        mf.formatToString(args(i % DATE_COUNT));
+                    }
+                    return null;
+                });
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            try {
+                long start = System.nanoTime();
+                for (Future<String> result : executor.invokeAll(tasks)) {
+                    result.get();
+                }
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%2d threads: %,12.0f formats / second%n",
+                        threadCount, threadCount * iterations * 1e9 / elapsed);
+            } finally {
+                executor.shutdown();
+            }
+            if (threadCount == maxThreads) {
+                break;
+            }
+        }
+    }
+
+    private static Map<String, Object> args(int i) {
+        String[] styles = {"full", "long", "medium", "short"};
+        return Args.of("exp", new Date(START + i * STEP), "style", styles[i % styles.length]);
+    }
+}
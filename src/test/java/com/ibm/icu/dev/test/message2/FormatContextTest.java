@@ -0,0 +1,119 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.dev.test.message2;
+
+import static org.junit.Assert.assertTrue;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.message2x.ArgumentSlots;
+import com.ibm.icu.message2x.FormatContext;
+import com.ibm.icu.message2x.MessageFormatter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Date;
+import java.util.Map;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for formatting with a reusable {@link FormatContext}.
+ */
+@RunWith(JUnit4.class)
+@SuppressWarnings({"static-method", "javadoc"})
+public class FormatContextTest extends CoreTestFmwk {
+    private static final String[] PATTERNS = {
+        "Hello {$user}, welcome to {$place}!",
+        "{$count :number minimumFractionDigits=$digits} items on {$exp :date style=short}",
+        ".input {$count :number}\n"
+                + ".local $place2 = {$place :string}\n"
+                + ".match {$count} {$user :string}\n"
+                + " 1 John {{One item for John in {$place2}.}}\n"
+                + " 1 * {{One item for {$user} in {$place2}.}}\n"
+                + " * * {{{$count} items for {$user}.}}\n",
+        "Hello {$user}, {$missing}{:unknown}",
+    };
+
+    @Test
+    public void testSameAsWithoutContext() {
+        // One context, used for several messages
+        FormatContext context = new FormatContext();
+        for (int i = 0; i < 20; i++) {
+            Map<String, Object> arguments = Args.of("user", i % 2 == 0 ? "John" : "Anna",
+                    "place", "Paris", "count", i % 3, "digits", i % 4,
+                    "exp", new Date(1_600_000_000_000L + i * 86_400_000L));
+            for (String pattern : PATTERNS) {
+                MessageFormatter mf = MessageFormatter.builder().setPattern(pattern).build();
+                String expected = mf.formatToString(arguments);
+                assertEquals(pattern, expected, mf.formatToString(context, arguments));
+
+                ArgumentSlots slots = mf.getArgumentSlots();
+                Object[] positional = slots.newArguments();
+                for (int slot = 0; slot < positional.length; slot++) {
+                    positional[slot] = arguments.get(slots.getNames().get(slot));
+                }
+                assertEquals(pattern, expected, mf.formatToString(context, positional));
+            }
+        }
+    }
+
+    @Test
+    public void testFailureDoesNotBreakContext() {
+        FormatContext context = new FormatContext();
+        MessageFormatter failing = MessageFormatter.builder()
+                .setPattern("{$exp :datetime dateStyle=full}")
+                .build();
+        MessageFormatter mf = MessageFormatter.builder()
+                .setPattern("Hello {$user}!")
+                .build();
+        try {
+            failing.formatToString(context, Args.of("exp", new Object()));
+        } catch (IllegalArgumentException e) {
+            // Expected, the argument is not a date
+        }
+        assertEquals("after failure", "Hello John!",
+                mf.formatToString(context, Args.of("user", "John")));
+    }
+
+    @Test
+    public void testAllocationBudget() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("No allocation counters",
+                bean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) bean)
+                                .isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        MessageFormatter mf = MessageFormatter.builder()
+                .setPattern("Hello {$user}, welcome to {$place :string}! {|(c)|} {$user}")
+                .build();
+        FormatContext context = new FormatContext();
+        ArgumentSlots slots = mf.getArgumentSlots();
+        Object[] arguments = slots.newArguments();
+        arguments[slots.indexOf("user")] = "John";
+        arguments[slots.indexOf("place")] = "Paris";
+        String expected = "Hello John, welcome to Paris! (c) John";
+
+        int iterations = 20_000;
+        // Warm up, so that the JIT compiled code is measured
+        for (int i = 0; i < iterations; i++) {
+            mf.formatToString(context, arguments);
+        }
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            mf.formatToString(context, arguments);
+        }
+        long perCall = (allocations.getThreadAllocatedBytes(threadId) - before) / iterations;
+
+        assertEquals("result", expected, mf.formatToString(context, arguments));
+        // The result string: object header, fields, and the characters.
+        // Generous, to not depend on compact strings or compressed pointers.
+        long budget = 48 + 2 * expected.length();
+        assertTrue("allocated " + perCall + " bytes per call, budget " + budget,
+                perCall <= budget);
+    }
+}
@@ -0,0 +1,133 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.dev.test.message2;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.message2x.FormattedMessage;
+import com.ibm.icu.message2x.MessageFormatter;
+import com.ibm.icu.text.ConstrainedFieldPosition;
+import com.ibm.icu.text.MessageFormat;
+import com.ibm.icu.text.NumberFormat;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the structured result of formatting, {@link FormattedMessage}.
+ */
+@RunWith(JUnit4.class)
+@SuppressWarnings({"static-method", "javadoc"})
+public class FormattedMessageTest extends CoreTestFmwk {
+
+    private static final MessageFormatter MF = MessageFormatter.builder()
+            .setPattern("Hello {$name}, you have {$count :number minimumFractionDigits=2} points.")
+            .build();
+    private static final Map<String, Object> ARGS = Args.of("name", "John", "count", 12345);
+    private static final String EXPECTED = "Hello John, you have 12,345.00 points.";
+
+    @Test
+    public void testString() {
+        FormattedMessage result = MF.format(ARGS);
+        assertEquals("to string", EXPECTED, result.toString());
+        assertEquals("same as formatToString", MF.formatToString(ARGS), result.toString());
+        assertEquals("length", EXPECTED.length(), result.length());
+        assertEquals("charAt", 'J', result.charAt(6));
+        assertEquals("subSequence", "John", result.subSequence(6, 10).toString());
+        assertEquals("appendTo", ">" + EXPECTED,
+                result.appendTo(new StringBuilder(">")).toString());
+    }
+
+    @Test
+    public void testArgumentPositions() {
+        FormattedMessage result = MF.format(ARGS);
+        ConstrainedFieldPosition cfpos = new ConstrainedFieldPosition();
+        cfpos.constrainField(MessageFormat.Field.ARGUMENT);
+        List<String> found = new ArrayList<>();
+        while (result.nextPosition(cfpos)) {
+            found.add(cfpos.getFieldValue() + "="
+                    + EXPECTED.substring(cfpos.getStart(), cfpos.getLimit()));
+        }
+        assertEquals("arguments", "[name=John, count=12,345.00]", found.toString());
+    }
+
+    @Test
+    public void testNumberFieldPositions() {
+        FormattedMessage result = MF.format(ARGS);
+        int numberStart = EXPECTED.indexOf("12,345.00");
+
+        ConstrainedFieldPosition cfpos = new ConstrainedFieldPosition();
+        cfpos.constrainClass(NumberFormat.Field.class);
+        List<String> found = new ArrayList<>();
+        while (result.nextPosition(cfpos)) {
+            found.add(cfpos.getField() + ":" + (cfpos.getStart() - numberStart)
+                    + "-" + (cfpos.getLimit() - numberStart));
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add(NumberFormat.Field.INTEGER + ":0-6");
+        expected.add(NumberFormat.Field.GROUPING_SEPARATOR + ":2-3");
+        expected.add(NumberFormat.Field.DECIMAL_SEPARATOR + ":6-7");
+        expected.add(NumberFormat.Field.FRACTION + ":7-9");
+        assertEquals("number fields", expected, found);
+    }
+
+    @Test
+    public void testCharacterIterator() {
+        AttributedCharacterIterator it = MF.format(ARGS).toCharacterIterator();
+        StringBuilder text = new StringBuilder();
+        for (char c = it.first(); c != AttributedCharacterIterator.DONE; c = it.next()) {
+            text.append(c);
+        }
+        assertEquals("iterator text", EXPECTED, text.toString());
+
+        it.setIndex(EXPECTED.indexOf("John"));
+        assertEquals("argument attribute", "name",
+                it.getAttribute(MessageFormat.Field.ARGUMENT));
+        assertEquals("argument run limit", EXPECTED.indexOf("John") + 4,
+                it.getRunLimit(MessageFormat.Field.ARGUMENT));
+
+        it.setIndex(EXPECTED.indexOf("12,345"));
+        assertEquals("argument attribute", "count",
+                it.getAttribute(MessageFormat.Field.ARGUMENT));
+        assertEquals("integer attribute", NumberFormat.Field.INTEGER,
+                it.getAttribute(NumberFormat.Field.INTEGER));
+
+        it.setIndex(0);
+        assertEquals("plain text", null, it.getAttribute(MessageFormat.Field.ARGUMENT));
+    }
+
+    @Test
+    public void testSelection() {
+        MessageFormatter mf = MessageFormatter.builder()
+                .setPattern(".match {$count :number}\n"
+                        + " 1 {{One item.}}\n"
+                        + " * {{{$count} items.}}\n")
+                .build();
+        assertEquals("selected", "One item.", mf.format(Args.of("count", 1)).toString());
+        assertEquals("selected", "42 items.", mf.format(Args.of("count", 42)).toString());
+    }
+
+    @Test
+    public void testConstantExpressions() {
+        // The literal expressions are formatted when the message is built,
+        // but they keep their own fields
+        MessageFormatter mf = MessageFormatter.builder()
+                .setPattern("Total: {12345 :number minimumFractionDigits=2}"
+                        + " by {|Acme|} for {$name}")
+                .build();
+        String expected = "Total: 12,345.00 by Acme for John";
+        FormattedMessage result = mf.format(Args.of("name", "John"));
+        assertEquals("to string", expected, result.toString());
+        assertEquals("same as formatToString", expected,
+                mf.formatToString(Args.of("name", "John")));
+
+        ConstrainedFieldPosition cfpos = new ConstrainedFieldPosition();
+        cfpos.constrainField(NumberFormat.Field.FRACTION);
+        assertEquals("fraction found", true, result.nextPosition(cfpos));
+        assertEquals("fraction", "00", expected.substring(cfpos.getStart(), cfpos.getLimit()));
+    }
+}
@@ -0,0 +1,92 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.dev.test.message2;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.message2x.MFFunctionRegistry;
+import com.ibm.icu.util.BuddhistCalendar;
+import com.ibm.icu.util.Calendar;
+import com.ibm.icu.util.GregorianCalendar;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.CharBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the mapping from types to default formatters in {@link MFFunctionRegistry}.
+ */
+@RunWith(JUnit4.class)
+@SuppressWarnings({"static-method", "javadoc"})
+public class FunctionRegistryTest extends CoreTestFmwk {
+
+    interface Named {}
+
+    interface Titled extends Named {}
+
+    static class Person implements Titled, Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    static class Employee extends Person implements Comparable<Employee> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int compareTo(Employee other) {
+            return 0;
+        }
+    }
+
+    @Test
+    public void testMostSpecificType() {
+        MFFunctionRegistry registry = MFFunctionRegistry.builder()
+                .setDefaultFormatterNameForType(Object.class, "object")
+                .setDefaultFormatterNameForType(Number.class, "number")
+                .setDefaultFormatterNameForType(Comparable.class, "comparable")
+                .setDefaultFormatterNameForType(CharSequence.class, "string")
+                .setDefaultFormatterNameForType(Calendar.class, "calendar")
+                .setDefaultFormatterNameForType(GregorianCalendar.class, "gregorian")
+                .setDefaultFormatterNameForType(Serializable.class, "serializable")
+                .setDefaultFormatterNameForType(Named.class, "named")
+                .build();
+
+        // Repeat, the second time the results are cached
+        for (int i = 0; i < 2; i++) {
+            assertEquals("exact", "number", registry.getDefaultFormatterNameForType(Number.class));
+            // Superclass (distance 1) before Comparable (distance 1, interface)
+            assertEquals("Long", "number", registry.getDefaultFormatterNameForType(Long.class));
+            assertEquals("BigDecimal", "number",
+                    registry.getDefaultFormatterNameForType(BigDecimal.class));
+            // Interfaces in declaration order: Serializable, Comparable, CharSequence
+            assertEquals("String", "serializable",
+                    registry.getDefaultFormatterNameForType(String.class));
+            // The superclass is not registered, Comparable is declared before CharSequence
+            assertEquals("CharBuffer", "comparable",
+                    registry.getDefaultFormatterNameForType(CharBuffer.class));
+            assertEquals("closest calendar", "gregorian",
+                    registry.getDefaultFormatterNameForType(BuddhistCalendar.class));
+            // Serializable (distance 1) before Named (distance 2, from Titled)
+            assertEquals("Person", "serializable",
+                    registry.getDefaultFormatterNameForType(Person.class));
+            // Comparable (distance 1) before the interfaces of Person (distance 2)
+            assertEquals("Employee", "comparable",
+                    registry.getDefaultFormatterNameForType(Employee.class));
+            // Object is the last resort
+            assertEquals("Thread", "object", registry.getDefaultFormatterNameForType(Thread.class));
+        }
+    }
+
+    @Test
+    public void testNotRegistered() {
+        MFFunctionRegistry registry = MFFunctionRegistry.builder()
+                .setDefaultFormatterNameForType(Person.class, "person")
+                .build();
+        assertEquals("subclass", "person", registry.getDefaultFormatterNameForType(Employee.class));
+        assertEquals("superclass", null, registry.getDefaultFormatterNameForType(Object.class));
+        assertEquals("other", null, registry.getDefaultFormatterNameForType(String.class));
+        assertEquals("empty registry", null,
+                MFFunctionRegistry.builder().build().getDefaultFormatterNameForType(String.class));
+    }
+}
@@ -0,0 +1,119 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.dev.test.message2;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.message2x.MFDataModel;
+import com.ibm.icu.message2x.MFLimits;
+import com.ibm.icu.message2x.MFParseException;
+import com.ibm.icu.message2x.MFParser;
+import com.ibm.icu.message2x.MessageFormatter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the limits on the messages that are not trusted, {@link MFLimits}.
+ */
+@RunWith(JUnit4.class)
+@SuppressWarnings({"static-method", "javadoc"})
+public class LimitsTest extends CoreTestFmwk {
+    private static final String DECLARATIONS =
+            ".input {$a :number} .local $b = {$a} .local $c = {$b} {{{$c}}}";
+    private static final String SELECTION = ".match {$a :number} {$b :string}\n"
+            + "1 x {{one x}}\n1 * {{one}}\n* x {{x}}\n* * {{other}}";
+    private static final String OPTIONS = "{$a :number minimumFractionDigits=2 useGrouping=never}";
+
+    private static void assertParses(String message, MFLimits limits) throws MFParseException {
+        MFParser.parse(message, limits);
+        MessageFormatter.builder().setPattern(message).setLimits(limits).build();
+    }
+
+    // Both when parsing, and when building from a data model
+    private static void assertExceeds(String message, MFLimits limits) throws MFParseException {
+        Assert.assertThrows(MFParseException.class, () -> MFParser.parse(message, limits));
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> MessageFormatter.builder().setPattern(message).setLimits(limits).build());
+        MFDataModel.Message dataModel = MFParser.parse(message);
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> MessageFormatter.builder().setDataModel(dataModel).setLimits(limits).build());
+    }
+
+    @Test
+    public void testNoLimits() throws MFParseException {
+        for (String message : new String[] {DECLARATIONS, SELECTION, OPTIONS}) {
+            assertParses(message, MFLimits.NONE);
+        }
+    }
+
+    @Test
+    public void testInputLength() throws MFParseException {
+        MFLimits limits = MFLimits.builder().setMaxInputLength(11).build();
+        MFParser.parse("Hello {$x}.", limits);
+        MFParseException e = Assert.assertThrows(MFParseException.class,
+                () -> MFParser.parse("Hello {$x}!!", limits));
+        assertEquals("the error does not show the input", false, e.getMessage().contains("Hello"));
+        // In bytes for UTF-8
+        Assert.assertThrows(MFParseException.class, () -> MFParser.parseUtf8(
+                ByteBuffer.wrap("Hello {$é}.".getBytes(StandardCharsets.UTF_8)), limits));
+    }
+
+    @Test
+    public void testDeclarations() throws MFParseException {
+        assertParses(DECLARATIONS, MFLimits.builder().setMaxDeclarations(3).build());
+        assertExceeds(DECLARATIONS, MFLimits.builder().setMaxDeclarations(2).build());
+    }
+
+    @Test
+    public void testSelection() throws MFParseException {
+        MFLimits limits = MFLimits.builder()
+                .setMaxSelectors(2)
+                .setMaxVariants(4)
+                .setMaxSelectionSize(8)
+                .build();
+        assertParses(SELECTION, limits);
+        assertExceeds(SELECTION, MFLimits.builder().setMaxSelectors(1).build());
+        assertExceeds(SELECTION, MFLimits.builder().setMaxVariants(3).build());
+        assertExceeds(SELECTION, MFLimits.builder().setMaxSelectionSize(7).build());
+    }
+
+    @Test
+    public void testOptions() throws MFParseException {
+        assertParses(OPTIONS, MFLimits.builder().setMaxOptions(2).build());
+        assertExceeds(OPTIONS, MFLimits.builder().setMaxOptions(1).build());
+    }
+
+    @Test
+    public void testOutputLength() {
+        MessageFormatter mf = MessageFormatter.builder()
+                .setPattern("Hello {$name}!")
+                .setLocale(Locale.US)
+                .setLimits(MFLimits.builder().setMaxOutputLength(12).build())
+                .build();
+        assertEquals("at the limit", "Hello World!",
+                mf.formatToString(Args.of("name", "World")));
+        assertEquals("as parts", "Hello World!",
+                mf.format(Args.of("name", "World")).toString());
+
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> mf.formatToString(Args.of("name", "Worlds")));
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> mf.format(Args.of("name", "Worlds")));
+        // Nothing is appended past the limit, the "!" would be the 13th char
+        StringBuilder output = new StringBuilder("Before: ");
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> mf.formatTo(Args.of("name", "Worlds"), output));
+        assertEquals("appended", "Before: Hello Worlds", output.toString());
+    }
+
+    @Test
+    public void testNegativeLimit() {
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> MFLimits.builder().setMaxVariants(-1));
+    }
+}
@@ -4,11 +4,13 @@
 package com.ibm.icu.dev.test.message2;
 
 import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.message2x.ArgumentSlots;
 import com.ibm.icu.message2x.FormattedPlaceholder;
 import com.ibm.icu.message2x.Formatter;
 import com.ibm.icu.message2x.FormatterFactory;
 import com.ibm.icu.message2x.MFFunctionRegistry;
 import com.ibm.icu.message2x.MessageFormatter;
+import com.ibm.icu.message2x.PlainStringFormattedValue;
 import com.ibm.icu.number.FormattedNumber;
 import com.ibm.icu.number.LocalizedNumberFormatter;
 import com.ibm.icu.number.NumberFormatter;
@@ -17,10 +19,24 @@ import com.ibm.icu.util.Calendar;
 import com.ibm.icu.util.GregorianCalendar;
 import com.ibm.icu.util.Measure;
 import com.ibm.icu.util.MeasureUnit;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -124,6 +140,62 @@ public class MessageFormat2Test extends CoreTestFmwk {
                 mf2.formatToString(Args.of("exp", calNotRegistered)));
     }
 
+    @Test
+    public void testJavaTimeTypes() {
+        // Instants and epoch millis are formatted in the default time zone,
+        // so the test sets it instead of depending on the machine.
+        TimeZone savedZone = TimeZone.getDefault();
+        com.ibm.icu.util.TimeZone savedIcuZone = com.ibm.icu.util.TimeZone.getDefault();
+        com.ibm.icu.util.TimeZone.setDefault(
+                com.ibm.icu.util.TimeZone.getTimeZone("America/Los_Angeles"));
+        try {
+            checkJavaTimeTypes();
+        } finally {
+            com.ibm.icu.util.TimeZone.setDefault(savedIcuZone);
+            TimeZone.setDefault(savedZone);
+        }
+    }
+
+    private static void checkJavaTimeTypes() {
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setLocale(Locale.US)
+                .setPattern("Expires on {$exp :datetime dateStyle=medium timeStyle=short}!")
+                .build();
+        // 2022-10-27 14:30 in Los Angeles
+        Instant instant = Instant.parse("2022-10-27T21:30:00Z");
+        String expected = "Expires on Oct 27, 2022, 2:30\u202FPM!";
+        assertEquals("instant", expected, mf2.formatToString(Args.of("exp", instant)));
+        assertEquals("epoch millis", expected,
+                mf2.formatToString(Args.of("exp", instant.toEpochMilli())));
+        assertEquals("zoned date time", "Expires on Oct 27, 2022, 11:30\u202FPM!",
+                mf2.formatToString(Args.of("exp",
+                        ZonedDateTime.ofInstant(instant, ZoneId.of("Europe/Paris")))));
+        assertEquals("offset date time", "Expires on Oct 27, 2022, 11:30\u202FPM!",
+                mf2.formatToString(Args.of("exp",
+                        OffsetDateTime.ofInstant(instant, ZoneOffset.ofHours(2)))));
+        // An offset with seconds
+        assertEquals("offset with seconds", "Expires on Oct 28, 2022, 3:00\u202FAM!",
+                mf2.formatToString(Args.of("exp", OffsetDateTime.ofInstant(instant,
+                        ZoneOffset.ofHoursMinutesSeconds(5, 30, 15)))));
+        assertEquals("local date time", "Expires on Oct 27, 2022, 2:30\u202FPM!",
+                mf2.formatToString(Args.of("exp", LocalDateTime.of(2022, 10, 27, 14, 30))));
+        java.util.Calendar calendar =
+                java.util.Calendar.getInstance(TimeZone.getTimeZone("Asia/Tokyo"));
+        calendar.setTimeInMillis(instant.toEpochMilli());
+        assertEquals("java.util.Calendar", "Expires on Oct 28, 2022, 6:30\u202FAM!",
+                mf2.formatToString(Args.of("exp", calendar)));
+
+        // Default formatter for the java.time types, without a function
+        mf2 = MessageFormatter.builder()
+                .setLocale(Locale.US)
+                .setPattern("Expires on {$exp}!")
+                .build();
+        assertEquals("local date", "Expires on 10/27/22, 12:00\u202FAM!",
+                mf2.formatToString(Args.of("exp", LocalDate.of(2022, 10, 27))));
+        assertEquals("instant", "Expires on 10/27/22, 2:30\u202FPM!",
+                mf2.formatToString(Args.of("exp", instant)));
+    }
+
     @Test
     public void testPlural() {
         String message = ""
@@ -142,6 +214,25 @@ public class MessageFormat2Test extends CoreTestFmwk {
                 mf2.formatToString(Args.of("count", 42)));
     }
 
+    @Test
+    public void testPluralExactBeforeCategory() {
+        // The exact match wins over the plural category, even if it comes later
+        String message = ""
+                + ".match {$count :number}\n"
+                + " one {{Category one.}}\n"
+                + " 1 {{Exactly one.}}\n"
+                + " * {{Other {$count}.}}\n";
+
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setPattern(message)
+                .build();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("plural", "Exactly one.", mf2.formatToString(Args.of("count", 1)));
+            assertEquals("plural", "Other 2.", mf2.formatToString(Args.of("count", 2)));
+            assertEquals("plural", "Other x.", mf2.formatToString(Args.of("count", "x")));
+        }
+    }
+
     @Test
     public void testPluralOrdinal() {
         String message = ""
@@ -327,6 +418,132 @@ public class MessageFormat2Test extends CoreTestFmwk {
                 mf2.formatToString(Args.of("count", 12.54321, "unit", "F")));
     }
 
+    static class CountingFormatterFactory implements FormatterFactory {
+        int createCount = 0;
+        int formatCount = 0;
+
+        @Override
+        public Formatter createFormatter(Locale locale, Map<String, Object> fixedOptions) {
+            createCount++;
+            return new Formatter() {
+                @Override
+                public String formatToString(Object toFormat, Map<String, Object> variableOptions) {
+                    return format(toFormat, variableOptions).toString();
+                }
+
+                @Override
+                public FormattedPlaceholder format(Object toFormat, Map<String, Object> variableOptions) {
+                    formatCount++;
+                    return new FormattedPlaceholder(toFormat,
+                            new PlainStringFormattedValue("<" + toFormat + ">"));
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testDeclarationsAreLazy() {
+        CountingFormatterFactory counter = new CountingFormatterFactory();
+        MFFunctionRegistry registry = MFFunctionRegistry.builder()
+                .setFormatter("count", counter)
+                .build();
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setFunctionRegistry(registry)
+                .setPattern(".local $a = {$x :count}\n"
+                        + ".local $b = {$y :count}\n"
+                        + ".local $unused = {$z :count}\n"
+                        + ".match {$n :number}\n"
+                        + " 1 {{{$a}}}\n"
+                        + " * {{{$b} and {$b}}}\n")
+                .build();
+
+        // Only `$a` is resolved (one formatter), then formatted once (another formatter)
+        assertEquals("lazy declarations", "<12>",
+                mf2.formatToString(Args.of("n", 1, "x", 12, "y", 34, "z", 56)));
+        assertEquals("formatters created", 2, counter.createCount);
+        assertEquals("values formatted", 1, counter.formatCount);
+
+        // Only `$b` is resolved, once, even if used twice
+        counter.createCount = 0;
+        counter.formatCount = 0;
+        assertEquals("lazy declarations", "<34> and <34>",
+                mf2.formatToString(Args.of("n", 5, "x", 12, "y", 34, "z", 56)));
+        assertEquals("formatters created", 3, counter.createCount);
+        assertEquals("values formatted", 2, counter.formatCount);
+    }
+
+    @Test
+    public void testSelectionDoesNotFormat() {
+        CountingFormatterFactory counter = new CountingFormatterFactory();
+        MFFunctionRegistry registry = MFFunctionRegistry.builder()
+                .setFormatter("count", counter)
+                .setSelector("count", (locale, fixedOptions) -> (value, keys, variableOptions) -> {
+                    List<String> result = new ArrayList<>();
+                    for (String key : keys) {
+                        if (key.equals(String.valueOf(value))) {
+                            result.add(key);
+                        }
+                    }
+                    return result;
+                })
+                .build();
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setFunctionRegistry(registry)
+                .setPattern(".local $a = {$x :count}\n"
+                        + ".local $b = {$a :count}\n"
+                        + ".match {$b} {$y :count}\n"
+                        + " 1 2 {{one two}}\n"
+                        + " * * {{other}}\n")
+                .build();
+
+        assertEquals("selection", "one two", mf2.formatToString(Args.of("x", 1, "y", 2)));
+        assertEquals("selection", "other", mf2.formatToString(Args.of("x", 1, "y", 3)));
+        assertEquals("values formatted", 0, counter.formatCount);
+
+        // The chained value is formatted only when output
+        mf2 = MessageFormatter.builder()
+                .setFunctionRegistry(registry)
+                .setPattern(".local $a = {$x :count}\n"
+                        + ".local $b = {$a :count}\n"
+                        + ".match {$b}\n"
+                        + " 1 {{one {$b}}}\n"
+                        + " * {{other}}\n")
+                .build();
+        assertEquals("selection", "one <1>", mf2.formatToString(Args.of("x", 1)));
+        assertEquals("values formatted", 1, counter.formatCount);
+    }
+
+    @Test
+    public void testCustomFunctionsOnLiteralsAreCalled() {
+        // Only the standard functions on literals are formatted when building the message
+        CountingFormatterFactory counter = new CountingFormatterFactory();
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setFunctionRegistry(MFFunctionRegistry.builder()
+                        .setFormatter("count", counter)
+                        .build())
+                .setPattern("{|a| :count} {42 :number} {|b|}")
+                .build();
+        assertEquals("literals", "<a> 42 b", mf2.formatToString(null));
+        assertEquals("literals", "<a> 42 b", mf2.formatToString(null));
+        assertEquals("values formatted", 2, counter.formatCount);
+    }
+
+    // A declaration that fails is ignored, as when the declarations were resolved eagerly
+    @Test
+    public void testFailedDeclaration() {
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setPattern(".local $a = {$b :number} {{Hello {$a}}}")
+                .build();
+        assertEquals("missing argument", "Hello {$a}", mf2.formatToString(Args.NONE));
+        assertEquals("argument", "Hello 1,234", mf2.formatToString(Args.of("b", 1234)));
+
+        mf2 = MessageFormatter.builder()
+                .setPattern(".local $digits = {$b :number}\n"
+                        + "{{{$n :number minimumFractionDigits=$digits}}}")
+                .build();
+        assertEquals("missing option value", "1", mf2.formatToString(Args.of("n", 1)));
+    }
+
     @Test
     public void testPluralWithOffset() {
         String message = ""
@@ -572,4 +789,136 @@ public class MessageFormat2Test extends CoreTestFmwk {
         assertEquals("test local vars loop", "Count = 23, OffCount = 21, and delta=2.",
                 mfVar2.formatToString(Args.of("count", 23, "delta", 2)));
     }
+
+    @Test
+    public void testSharedFormattersMultithreaded() throws InterruptedException {
+        // The :number and :datetime formatters with literal options are created once
+        // and shared by all the calls, so they must be safe to use from several threads.
+        final MessageFormatter mf2 = MessageFormatter.builder()
+                .setPattern("{$count :number minimumFractionDigits=2} on {$exp :date style=medium}")
+                .build();
+        final Date expiration = new Date(2022 - 1900, java.util.Calendar.OCTOBER, 27);
+        final String[] errors = new String[1];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    String actual = mf2.formatToString(Args.of("count", i, "exp", expiration));
+                    String expected = i + ".00 on Oct 27, 2022";
+                    if (!expected.equals(actual)) {
+                        synchronized (errors) {
+                            errors[0] = "expected '" + expected + "', got '" + actual + "'";
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(errors[0]);
+    }
+
+    @Test
+    public void testFormatTo() {
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setPattern(".match {$count :number}\n"
+                        + " 1 {{Hello {$name}, you have one notification.}}\n"
+                        + " * {{Hello {$name}, you have {$count :number minimumFractionDigits=1} notifications.}}\n")
+                .build();
+        Map<String, Object> arguments = Args.of("name", "John", "count", 1234);
+        String expected = "Hello John, you have 1,234.0 notifications.";
+        assertEquals("format to string", expected, mf2.formatToString(arguments));
+
+        StringBuilder sb = new StringBuilder("Prefix: ");
+        assertEquals("format to StringBuilder", "Prefix: " + expected,
+                mf2.formatTo(arguments, sb).toString());
+
+        StringWriter writer = new StringWriter();
+        mf2.formatTo(arguments, writer);
+        assertEquals("format to Writer", expected, writer.toString());
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testFormatToFailingAppendable() {
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setPattern("{$count :number} items")
+                .build();
+        Appendable failing = new Appendable() {
+            @Override
+            public Appendable append(CharSequence csq) throws IOException {
+                throw new IOException("Can't append");
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) throws IOException {
+                throw new IOException("Can't append");
+            }
+
+            @Override
+            public Appendable append(char c) throws IOException {
+                throw new IOException("Can't append");
+            }
+        };
+        mf2.formatTo(Args.of("count", 42), failing);
+    }
+
+    @Test
+    public void testVariableOptionsReuseFormatters() {
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setPattern("{$count :number minimumFractionDigits=$digits} on {$exp :date style=$style}")
+                .build();
+        Date expiration = new Date(2022 - 1900, java.util.Calendar.OCTOBER, 27);
+        String[] styles = {"short", "medium", "long"};
+        String[] dates = {"10/27/22", "Oct 27, 2022", "October 27, 2022"};
+        String[] numbers = {"1,234.5", "1,234.50", "1,234.500"};
+        for (int i = 0; i < 30; i++) {
+            int digits = i % 3;
+            assertEquals("variable options",
+                    numbers[digits] + " on " + dates[digits],
+                    mf2.formatToString(Args.of("count", 1234.5, "digits", digits + 1,
+                            "exp", expiration, "style", styles[digits])));
+        }
+    }
+
+    @Test
+    public void testArgumentSlots() {
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setPattern(".input {$count :number}\n"
+                        + ".local $total = {$price :number minimumFractionDigits=$digits}\n"
+                        + ".match {$count}\n"
+                        + " 1 {{{$user} bought one item for {$total}.}}\n"
+                        + " * {{{$user} bought {$count} items for {$total}.}}\n")
+                .build();
+        ArgumentSlots slots = mf2.getArgumentSlots();
+        assertEquals("slot order", Arrays.asList("count", "total", "price", "digits", "user"),
+                slots.getNames());
+        assertEquals("unknown slot", -1, slots.indexOf("foo"));
+
+        Object[] arguments = slots.newArguments();
+        StringBuilder result = new StringBuilder();
+        for (int count = 1; count <= 3; count++) {
+            arguments[slots.indexOf("count")] = count;
+            arguments[slots.indexOf("price")] = 12.5 * count;
+            arguments[slots.indexOf("digits")] = count;
+            arguments[slots.indexOf("user")] = "John";
+            result.setLength(0);
+            Map<String, Object> map = Args.of("count", count, "price", 12.5 * count,
+                    "digits", count, "user", "John");
+            assertEquals("same as map", mf2.formatToString(map),
+                    mf2.formatTo(arguments, result).toString());
+            assertEquals("same as map", mf2.format(map).toString(),
+                    mf2.format(arguments).toString());
+        }
+        assertEquals("reused array", "John bought 3 items for 37.500.", result.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testArgumentSlotsTooFewArguments() {
+        MessageFormatter mf2 = MessageFormatter.builder()
+                .setPattern("{$user} has {$count} items.")
+                .build();
+        mf2.format(new Object[] {"John"});
+    }
 }
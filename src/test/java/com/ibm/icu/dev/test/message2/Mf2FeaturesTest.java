@@ -255,6 +255,18 @@ public class Mf2FeaturesTest extends CoreTestFmwk {
                 .arguments(Args.of("val", new BigDecimal("1234567890123456789.987654321")))
                 .expected("Default number: 1.234.567.890.123.456.789,987654!")
                 .build());
+        TestUtils.runTestCase(new TestCase.Builder()
+                .pattern("Default number: {$val}!")
+                .locale("ro")
+                .arguments(Args.of("val",
+                        new java.math.BigDecimal("1234567890123456789.987654321")))
+                .expected("Default number: 1.234.567.890.123.456.789,987654!")
+                .build());
+        TestUtils.runTestCase(new TestCase.Builder()
+                .pattern("Long literal: {12345678901234567890123 :number}!")
+                .locale("ro")
+                .expected("Long literal: 12.345.678.901.234.567.890.123!")
+                .build());
         TestUtils.runTestCase(new TestCase.Builder()
                 .pattern("Price: {$val}")
                 .locale("de")
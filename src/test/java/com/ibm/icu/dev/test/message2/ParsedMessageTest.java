@@ -0,0 +1,152 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.dev.test.message2;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.message2x.MFDataModel;
+import com.ibm.icu.message2x.MFParseException;
+import com.ibm.icu.message2x.MFParsedMessage;
+import com.ibm.icu.message2x.MFParser;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the incremental parsing of edited messages, {@link MFParsedMessage}.
+ */
+@RunWith(JUnit4.class)
+@SuppressWarnings({"static-method", "javadoc"})
+public class ParsedMessageTest extends CoreTestFmwk {
+    private static final String SELECT = ".input {$count :number}\n"
+            + ".local $name = {$user :string}\n"
+            + ".match {$count} {$name}\n"
+            + "one Ann {{One file for Ann}}\n"
+            + "one * {{One file for {$name}}}\n"
+            + "* * {{{$count} files for {$name}}}";
+    private static final String PATTERN = ".local $x = {1 :number}\n"
+            + ".local $y = {|two| :string}\n"
+            + "{{The values are {$x} and {$y}.}}";
+
+    // Same result as parsing the text from scratch
+    private static void assertSameAsFullParse(String message, MFParsedMessage parsed) {
+        assertEquals("text", message, parsed.getText());
+        try {
+            MFDataModel.Message expected = MFParser.parse(message);
+            assertEquals("no error in " + message, null, parsed.getError());
+            assertEquals("data model of " + message,
+                    TestUtils.GSON.toJson(expected), TestUtils.GSON.toJson(parsed.getDataModel()));
+        } catch (MFParseException e) {
+            assertEquals("error in " + message, e.getMessage(),
+                    parsed.getError() == null ? null : parsed.getError().getMessage());
+            assertEquals("no data model", null, parsed.getDataModel());
+        }
+    }
+
+    @Test
+    public void testEditReusesParts() {
+        MFParsedMessage before = MFParsedMessage.parse(SELECT);
+        int offset = SELECT.indexOf("One file for Ann") + "One file".length();
+        MFParsedMessage after = before.edit(offset, 0, "s");
+        assertSameAsFullParse(SELECT.substring(0, offset) + "s" + SELECT.substring(offset), after);
+
+        MFDataModel.SelectMessage sm1 = (MFDataModel.SelectMessage) before.getDataModel();
+        MFDataModel.SelectMessage sm2 = (MFDataModel.SelectMessage) after.getDataModel();
+        assertEquals("edited variant", false, sm1.variants.get(0) == sm2.variants.get(0));
+        assertEquals("other variant", true, sm1.variants.get(1) == sm2.variants.get(1));
+        assertEquals("last variant", true, sm1.variants.get(2) == sm2.variants.get(2));
+        assertEquals("declaration", true, sm1.declarations.get(1) == sm2.declarations.get(1));
+        assertEquals("selector", true, sm1.selectors.get(0) == sm2.selectors.get(0));
+
+        // The spans after the edit moved
+        MFParsedMessage again = after.edit(after.getText().indexOf("{$count} files"), 0, "All ");
+        assertSameAsFullParse(after.getText().replace("{$count} files", "All {$count} files"),
+                again);
+    }
+
+    @Test
+    public void testEditThroughErrors() {
+        MFParsedMessage parsed = MFParsedMessage.parse(PATTERN);
+        // Typing a new option, one char at a time, the first ones are invalid
+        int offset = PATTERN.indexOf(":number") + ":number".length();
+        String option = " minimumFractionDigits=2";
+        for (int i = 0; i < option.length(); i++) {
+            parsed = parsed.edit(offset + i, 0, option.substring(i, i + 1));
+            assertSameAsFullParse(parsed.getText(), parsed);
+        }
+        assertEquals("valid at the end", null, parsed.getError());
+        // An unclosed placeholder reads into the next declaration, then it is closed again
+        int end = parsed.getText().indexOf("2}") + 1;
+        parsed = parsed.edit(end, 1, "");
+        assertSameAsFullParse(parsed.getText(), parsed);
+        parsed = parsed.edit(end, 0, "}");
+        assertSameAsFullParse(parsed.getText(), parsed);
+        assertEquals("valid again", null, parsed.getError());
+    }
+
+    @Test
+    public void testStructureChanges() {
+        MFParsedMessage parsed = MFParsedMessage.parse(SELECT);
+        // A new variant, removing a variant, a new selector, not a message with .match anymore
+        String[][] edits = {
+            {"* * {{", "1 Bob {{Bob}}\n* * {{"},
+            {"one * {{One file for {$name}}}\n", ""},
+            {".match {$count}", ".match {$count} {$count}"},
+            {".match", "{{x}} .match"},
+        };
+        for (String[] edit : edits) {
+            String text = parsed.getText();
+            int offset = text.indexOf(edit[0]);
+            parsed = parsed.edit(offset, edit[0].length(), edit[1]);
+            assertSameAsFullParse(text.replace(edit[0], edit[1]), parsed);
+        }
+    }
+
+    @Test
+    public void testSimpleAndReserved() {
+        MFParsedMessage parsed = MFParsedMessage.parse("Hello {$name}!").edit(5, 0, ",");
+        assertSameAsFullParse("Hello, {$name}!", parsed);
+        // A reserved statement reads the expressions after it
+        String reserved = ".foo {$a} {$b} {{x}}";
+        parsed = MFParsedMessage.parse(reserved).edit(reserved.indexOf("{{"), 0, "{$c} ");
+        assertSameAsFullParse(".foo {$a} {$b} {$c} {{x}}", parsed);
+    }
+
+    @Test
+    public void testEditOutsideText() {
+        MFParsedMessage parsed = MFParsedMessage.parse(PATTERN);
+        Assert.assertThrows(IllegalArgumentException.class, () -> parsed.edit(-1, 0, "x"));
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> parsed.edit(PATTERN.length(), 1, "x"));
+        assertSameAsFullParse(PATTERN + "x", parsed.edit(PATTERN.length(), 0, "x"));
+    }
+
+    // Random typing and deleting, each result compared to a full parse
+    @Test
+    public void testRandomEdits() {
+        String[] insertions = {"{", "}", "{{", "}}", "|", "\\", "$", ":", "@", "=", ".", " ",
+            "\n", "*", "a", "x", "1", "one", "{$count}", ".local $z = {1}\n", " x {{y}}\n",
+            ":number", "😀"};
+        Random random = new Random(42);
+        for (String message : new String[] {SELECT, PATTERN}) {
+            for (int session = 0; session < 500; session++) {
+                MFParsedMessage parsed = MFParsedMessage.parse(message);
+                for (int step = 0; step < 8; step++) {
+                    String text = parsed.getText();
+                    int offset = random.nextInt(text.length() + 1);
+                    int removed = random.nextInt(3) == 0
+                            ? Math.min(random.nextInt(4), text.length() - offset)
+                            : 0;
+                    String inserted = removed > 0 && random.nextBoolean()
+                            ? ""
+                            : insertions[random.nextInt(insertions.length)];
+                    parsed = parsed.edit(offset, removed, inserted);
+                    assertSameAsFullParse(text.substring(0, offset) + inserted
+                            + text.substring(offset + removed), parsed);
+                }
+            }
+        }
+    }
+}
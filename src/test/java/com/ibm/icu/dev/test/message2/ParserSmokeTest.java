@@ -5,11 +5,18 @@ package com.ibm.icu.dev.test.message2;
 
 import com.google.gson.reflect.TypeToken;
 import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.message2x.MFDataModel;
+import com.ibm.icu.message2x.MFParseException;
 import com.ibm.icu.message2x.MFParser;
 import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -39,4 +46,73 @@ public class ParserSmokeTest extends CoreTestFmwk {
             }
         }
     }
+
+    @Test
+    public void testInPlaceInputs() throws Exception {
+        List<String> messages = new ArrayList<>();
+        try (Reader reader = TestUtils.jsonReader(JSON_FILE)) {
+            Type mapType = new TypeToken<Map<String, String[]>>(){/* not code */}.getType();
+            Map<String, String[]> unitList = TestUtils.GSON.fromJson(reader, mapType);
+            for (String[] units : unitList.values()) {
+                for (String unit : units) {
+                    messages.add(unit);
+                }
+            }
+        }
+        // Non-ASCII, and errors
+        messages.add("Hello {$user :string} \u3000\u00E9\u20AC\uD83D\uDE00 \\{\\}|");
+        messages.add("{|\u00E9\uD83D\uDE00 \\| a| :string @\u00E9t\u00E9=|\u20AC|}");
+        messages.add(".local $x\u3000=\u3000{1.5e3 :number}\u3000{{{$x}}}");
+        messages.add("Unclosed {$\u00E9t\u00E9 :number");
+        messages.add("Bad {\u00E9:\u00E9 :}");
+
+        for (String message : messages) {
+            String expected = parseToString(message, MFParser::parse);
+            assertEquals("CharSequence: " + message, expected,
+                    parseToString(new StringBuilder(message), MFParser::parse));
+
+            char[] chars = ("<<" + message + ">>").toCharArray();
+            assertEquals("char[]: " + message, expected,
+                    parseToString(chars, c -> MFParser.parse(c, 2, c.length - 4)));
+
+            byte[] utf8 = ("<<" + message + ">>").getBytes(StandardCharsets.UTF_8);
+            ByteBuffer heap = ByteBuffer.wrap(utf8, 2, utf8.length - 4);
+            assertEquals("UTF-8: " + message, expected, parseToString(heap, MFParser::parseUtf8));
+            assertEquals("position unchanged", 2, heap.position());
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length).put(utf8);
+            direct.position(2).limit(utf8.length - 2);
+            assertEquals("direct UTF-8: " + message, expected,
+                    parseToString(direct, MFParser::parseUtf8));
+        }
+    }
+
+    @Test
+    public void testIllFormedUtf8() {
+        byte[][] illFormed = {
+            {'a', (byte) 0x80, 'b'}, // continuation without a lead byte
+            {'a', (byte) 0xC3}, // truncated
+            {'a', (byte) 0xC0, (byte) 0xAF}, // overlong
+            {'a', (byte) 0xED, (byte) 0xA0, (byte) 0x80}, // surrogate
+            {'a', (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80}, // above U+10FFFF
+            {'{', '|', (byte) 0xFF, '|', '}'}, // in a quoted literal
+        };
+        for (byte[] bytes : illFormed) {
+            Assert.assertThrows(MFParseException.class,
+                    () -> MFParser.parseUtf8(ByteBuffer.wrap(bytes)));
+        }
+    }
+
+    private interface Parse<T> {
+        MFDataModel.Message parse(T input) throws MFParseException;
+    }
+
+    // The data model, as JSON, or the error
+    private static <T> String parseToString(T input, Parse<T> parser) {
+        try {
+            return TestUtils.GSON.toJson(parser.parse(input));
+        } catch (MFParseException e) {
+            return "error";
+        }
+    }
 }
@@ -0,0 +1,36 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.message2x.MFDataModelFormatter.FunctionLookup;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the sharing of {@link FunctionLookup} between messages.
+ */
+@SuppressWarnings({"static-method", "javadoc"})
+@RunWith(JUnit4.class)
+public class FunctionLookupTest extends CoreTestFmwk {
+
+    @Test
+    public void testSharedLookup() {
+        FunctionLookup standard = FunctionLookup.forCustomRegistry(null);
+        // What MessageFormatter.Builder uses when there are no custom functions
+        assertEquals("empty registry", true,
+                FunctionLookup.forCustomRegistry(MFFunctionRegistry.builder().build()) == standard);
+
+        MFFunctionRegistry custom = MFFunctionRegistry.builder()
+                .setFormatter("upper", (locale, fixedOptions) -> null)
+                .build();
+        FunctionLookup merged = FunctionLookup.forCustomRegistry(custom);
+        assertEquals("custom registry", false, merged == standard);
+        assertEquals("cached on the registry", true,
+                FunctionLookup.forCustomRegistry(custom) == merged);
+        assertEquals("custom function", true, merged.formatters.containsKey("upper"));
+        assertEquals("standard function", true, merged.formatters.containsKey("number"));
+    }
+}
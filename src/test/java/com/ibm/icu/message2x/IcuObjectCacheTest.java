@@ -0,0 +1,184 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link IcuObjectCache}, and the sharing of ICU objects between messages.
+ */
+@SuppressWarnings({"static-method", "javadoc"})
+@RunWith(JUnit4.class)
+public class IcuObjectCacheTest extends CoreTestFmwk {
+
+    @Test
+    public void testSharedBetweenMessages() {
+        // The caches are shared with the other tests, so we only check the differences
+        long numberMisses = NumberFormatterFactory.NUMBER_FORMATTERS.misses();
+        long numberHits = NumberFormatterFactory.NUMBER_FORMATTERS.hits();
+        long pluralMisses = NumberFormatterFactory.PLURAL_RULES.misses();
+        long dateMisses = DateTimeFormatterFactory.DATE_FORMATS.misses();
+        long dateHits = DateTimeFormatterFactory.DATE_FORMATS.hits();
+
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("count", 1.5);
+        arguments.put("exp", "2020-09-13T12:00:00");
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            MessageFormatter mf = MessageFormatter.builder()
+                    .setLocale(Locale.CANADA_FRENCH)
+                    .setPattern(".match {$count :number minimumFractionDigits=3}\n"
+                            + " one {{Message " + i + ": {$count :number minimumFractionDigits=3}"
+                            + " on {$exp :date style=long}}}\n"
+                            + " * {{Message " + i + ": {$count :number minimumFractionDigits=3}"
+                            + " on {$exp :date style=long}}}\n")
+                    .build();
+            assertEquals("formatted", "Message " + i + ": 1,500 on 13 septembre 2020",
+                    mf.formatToString(arguments));
+        }
+
+        // The selector, the placeholder, and the variant keys share one ICU formatter
+        assertEquals("number formatters created",
+                1L, NumberFormatterFactory.NUMBER_FORMATTERS.misses() - numberMisses);
+        assertEquals("number formatters reused", true,
+                NumberFormatterFactory.NUMBER_FORMATTERS.hits() - numberHits >= 3 * count - 1);
+        assertEquals("plural rules created",
+                true, NumberFormatterFactory.PLURAL_RULES.misses() - pluralMisses <= 1);
+        assertEquals("date formats created",
+                1L, DateTimeFormatterFactory.DATE_FORMATS.misses() - dateMisses);
+        assertEquals("date formats reused",
+                true, DateTimeFormatterFactory.DATE_FORMATS.hits() - dateHits >= 2 * count - 1);
+    }
+
+    // A placeholder chained to a declaration with options: the arguments are not options,
+    // so they don't end in the cache keys.
+    @Test
+    public void testChainedPlaceholder() {
+        MessageFormatter mf = MessageFormatter.builder()
+                .setLocale(Locale.GERMANY)
+                .setPattern(".local $x = {$n :number minimumFractionDigits=2}\n"
+                        + ".local $d = {$when :date style=long}\n"
+                        + "{{{$x} for {$user} on {$d}}}")
+                .build();
+        long numberMisses = NumberFormatterFactory.NUMBER_FORMATTERS.misses();
+        long dateMisses = DateTimeFormatterFactory.DATE_FORMATS.misses();
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("n", 1.5);
+        arguments.put("when", "2020-09-13T12:00:00");
+        for (int i = 0; i < 1000; i++) {
+            arguments.put("user", "user" + i);
+            assertEquals("formatted", "1,50 for user" + i + " on 13. September 2020",
+                    mf.formatToString(arguments));
+        }
+        assertEquals("number formatters created", true,
+                NumberFormatterFactory.NUMBER_FORMATTERS.misses() - numberMisses <= 1);
+        assertEquals("date formats created", true,
+                DateTimeFormatterFactory.DATE_FORMATS.misses() - dateMisses <= 1);
+    }
+
+    // The formatters for variable options are cached per formatter, keyed only on the
+    // options that change the ICU formatter.
+    @Test
+    public void testVariableOptions() {
+        Map<String, Object> fixedOptions = new HashMap<>();
+        fixedOptions.put("minimumFractionDigits", "1");
+        Formatter formatter = new NumberFormatterFactory("number")
+                .createFormatter(Locale.US, fixedOptions);
+        long misses = NumberFormatterFactory.NUMBER_FORMATTERS.misses();
+        long hits = NumberFormatterFactory.NUMBER_FORMATTERS.hits();
+        Map<String, Object> variableOptions = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            variableOptions.put("signDisplay", i % 2 == 0 ? "always" : "auto");
+            variableOptions.put("user", "user" + i);
+            assertEquals("formatted", i % 2 == 0 ? "+2.5" : "2.5",
+                    formatter.formatToString(2.5, variableOptions));
+        }
+        long created = NumberFormatterFactory.NUMBER_FORMATTERS.misses() - misses;
+        long shared = NumberFormatterFactory.NUMBER_FORMATTERS.hits() - hits;
+        assertEquals("looked up in the shared cache", true, created + shared <= 2);
+    }
+
+    // The option values from local variables are formatted placeholders, that are never equal.
+    // The functions read them as missing, and so do the cache keys.
+    @Test
+    public void testOptionsFromLocals() {
+        MessageFormatter mf = MessageFormatter.builder()
+                .setLocale(Locale.US)
+                .setPattern(".local $sign = {|always| :string}\n"
+                        + ".local $style = {|long| :string}\n"
+                        + "{{{$n :number signDisplay=$sign minimumFractionDigits=$digits}"
+                        + " {$when :date style=$style year=$year}}}")
+                .build();
+        long numberMisses = NumberFormatterFactory.NUMBER_FORMATTERS.misses();
+        long numberHits = NumberFormatterFactory.NUMBER_FORMATTERS.hits();
+        long dateMisses = DateTimeFormatterFactory.DATE_FORMATS.misses();
+        long dateHits = DateTimeFormatterFactory.DATE_FORMATS.hits();
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("n", 2.5);
+        arguments.put("when", "2020-09-13T12:00:00");
+        for (int i = 0; i < 1000; i++) {
+            arguments.put("digits", i % 2 == 0 ? 1 : 2);
+            arguments.put("year", i % 2 == 0 ? "numeric" : "2-digit");
+            assertEquals("formatted", i % 2 == 0 ? "2.5 2020" : "2.50 20",
+                    mf.formatToString(arguments));
+        }
+        // Once for each distinct value, then found in the cache of the formatter
+        long numberLookups = NumberFormatterFactory.NUMBER_FORMATTERS.misses() - numberMisses
+                + NumberFormatterFactory.NUMBER_FORMATTERS.hits() - numberHits;
+        assertEquals("number formatters looked up", true, numberLookups <= 2);
+        long dateLookups = DateTimeFormatterFactory.DATE_FORMATS.misses() - dateMisses
+                + DateTimeFormatterFactory.DATE_FORMATS.hits() - dateHits;
+        assertEquals("date formats looked up", true, dateLookups <= 2);
+    }
+
+    // A chained call creates its formatter each time, with the options merged,
+    // looked up in the shared cache. The local option values must not fill it.
+    @Test
+    public void testLocalOptionsInSharedCache() {
+        MessageFormatter mf = MessageFormatter.builder()
+                .setLocale(Locale.US)
+                .setPattern(".local $x = {$n :number minimumFractionDigits=2}\n"
+                        + ".local $sign = {|always| :string}\n"
+                        + "{{{$x :number signDisplay=$sign}}}")
+                .build();
+        long misses = NumberFormatterFactory.NUMBER_FORMATTERS.misses();
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("n", 2.5);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("formatted", "2.50", mf.formatToString(arguments));
+        }
+        assertEquals("number formatters created", true,
+                NumberFormatterFactory.NUMBER_FORMATTERS.misses() - misses <= 1);
+    }
+
+    @Test
+    public void testLeastRecentlyUsed() {
+        IcuObjectCache<Integer, String> cache = new IcuObjectCache<>(10);
+        for (int i = 0; i < 100; i++) {
+            cache.get(i, k -> "value" + k);
+            assertEquals("used often, kept", "hot", cache.get(-1, k -> "hot"));
+        }
+        assertEquals("created once", 101L, cache.misses());
+        assertEquals("most recent kept", "value99", cache.get(99, k -> "other"));
+        assertEquals("oldest evicted", "other", cache.get(0, k -> "other"));
+    }
+
+    @Test
+    public void testBounded() {
+        IcuObjectCache<Integer, String> cache = new IcuObjectCache<>(10);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("created", "value" + i, cache.get(i, k -> "value" + k));
+            assertEquals("cached", "value" + i, cache.get(i, k -> "other"));
+        }
+        assertEquals("size", true, cache.size() <= 10);
+        assertEquals("misses", 100L, cache.misses());
+        assertEquals("hits", 100L, cache.hits());
+    }
+}
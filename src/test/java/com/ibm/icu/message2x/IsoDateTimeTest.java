@@ -0,0 +1,238 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import com.ibm.icu.util.GregorianCalendar;
+import com.ibm.icu.util.SimpleTimeZone;
+import com.ibm.icu.util.TimeZone;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that {@link IsoDateTime} accepts the same strings and produces the same moments
+ * as the regular expression based parser it replaced.
+ */
+@SuppressWarnings({"static-method", "javadoc"})
+@RunWith(JUnit4.class)
+public class IsoDateTimeTest extends CoreTestFmwk {
+    private static final String[] STRINGS = {
+        "2024-07-02",
+        "2024-02-31", // Lenient, same as March 2
+        "2024-07-02T14:30:00",
+        "2024-07-02T14:30:00.5",
+        "2024-07-02T14:30:00.05",
+        "2024-07-02T14:30:00.123",
+        "2024-07-02T14:30:00Z",
+        "2024-07-02T14:30:00.123Z",
+        "2024-07-02T14:30:00+05:30",
+        "2024-07-02T14:30:00-08:00",
+        "2024-07-02T14:30:00+14:00",
+        "2024-07-02T14:30:00-13:59",
+        "2024-01-15T00:00:00",
+        "1970-01-01T00:00:00Z",
+        "1600-03-01T12:00:00Z",
+        "1582-10-15T12:00:00Z",
+        "1492-10-12T12:00:00Z",
+        "0001-01-01",
+        "9999-12-31T23:59:59.999Z",
+        // Invalid
+        "",
+        "2024",
+        "2024-7-2",
+        "2024-00-02",
+        "2024-13-02",
+        "2024-07-00",
+        "2024-07-32",
+        "2024-07-02T",
+        "2024-07-02 14:30:00",
+        "2024-07-02T24:00:00",
+        "2024-07-02T14:60:00",
+        "2024-07-02T14:30:60",
+        "2024-07-02T14:30",
+        "2024-07-02T14:30:00.",
+        "2024-07-02T14:30:00.1234",
+        "2024-07-02T14:30:00z",
+        "2024-07-02T14:30:00+14:01",
+        "2024-07-02T14:30:00+15:00",
+        "2024-07-02T14:30:00+05",
+        "2024-07-02T14:30:00+0530",
+        "2024-07-02T14:30:00Z ",
+        "x2024-07-02",
+        "2024-07-02x",
+        "２０２４-07-02",
+    };
+
+    @Test
+    public void testSameAsRegex() {
+        for (String text : STRINGS) {
+            checkSameAsRegex(text);
+        }
+    }
+
+    @Test
+    public void testRandomSameAsRegex() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            String text = randomIsoDate(random);
+            // Also break some of them, one character at a time
+            if (random.nextInt(4) == 0) {
+                char[] chars = text.toCharArray();
+                chars[random.nextInt(chars.length)] = "0159:+-TZ.x".charAt(random.nextInt(11));
+                text = new String(chars);
+            }
+            checkSameAsRegex(text);
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkParse() {
+        Random random = new Random(42);
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            inputs.add(randomIsoDate(random));
+        }
+        TimeZone defaultZone = TimeZone.getDefault();
+        int[] offsets = new int[2];
+        int iterations = 2_000;
+        for (int round = 0; round < 3; round++) {
+            long checksum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (String input : inputs) {
+                    checksum += ((GregorianCalendar) parseWithRegex(input)).getTimeInMillis();
+                }
+            }
+            long regexTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                for (String input : inputs) {
+                    IsoDateTime isoDate = IsoDateTime.parse(input);
+                    TimeZone zone = isoDate.timeZone == null ? defaultZone : isoDate.timeZone;
+                    checksum -= isoDate.toEpochMillis(zone, offsets);
+                }
+            }
+            long scannerTime = System.nanoTime() - start;
+            double count = (double) iterations * inputs.size();
+            System.out.printf("regex: %6.1f ns / date, scanner: %6.1f ns / date (checksum %d)%n",
+                    regexTime / count, scannerTime / count, checksum);
+        }
+    }
+
+    private static void checkSameAsRegex(String text) {
+        Object expected = parseWithRegex(text);
+        IsoDateTime actual = IsoDateTime.parse(text);
+        if (!(expected instanceof GregorianCalendar)) {
+            assertEquals("invalid: '" + text + "'", null, actual);
+            return;
+        }
+        GregorianCalendar gc = (GregorianCalendar) expected;
+        assertEquals("valid: '" + text + "'", true, actual != null);
+        TimeZone zone = actual.timeZone == null ? TimeZone.getDefault() : actual.timeZone;
+        assertEquals("offset: '" + text + "'", gc.getTimeZone().getRawOffset(), zone.getRawOffset());
+        assertEquals("millis: '" + text + "'",
+                gc.getTimeInMillis(), actual.toEpochMillis(zone, new int[2]));
+    }
+
+    private static String randomIsoDate(Random random) {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%04d-%02d-%02d",
+                1583 + random.nextInt(8000), 1 + random.nextInt(12), 1 + random.nextInt(31)));
+        if (random.nextBoolean()) {
+            return result.toString();
+        }
+        result.append(String.format("T%02d:%02d:%02d",
+                random.nextInt(24), random.nextInt(60), random.nextInt(60)));
+        int fractionDigits = random.nextInt(4);
+        if (fractionDigits > 0) {
+            result.append('.');
+            for (int i = 0; i < fractionDigits; i++) {
+                result.append((char) ('0' + random.nextInt(10)));
+            }
+        }
+        switch (random.nextInt(3)) {
+            case 0:
+                result.append('Z');
+                break;
+            case 1:
+                result.append(String.format("%c%02d:%02d", random.nextBoolean() ? '+' : '-',
+                        random.nextInt(14), random.nextInt(60)));
+                break;
+            default:
+                // Local time, skip the daylight saving time transitions in the default zone
+                if (result.charAt(11) == '0' && result.charAt(12) <= '3') {
+                    result.setCharAt(12, '4');
+                }
+        }
+        return result.toString();
+    }
+
+    // The parser used before IsoDateTime, as reference
+    private static final Pattern ISO_PATTERN = Pattern.compile(
+            "^(([0-9]{4})-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])){1}(T([01][0-9]|2[0-3]):([0-5][0-9]):([0-5][0-9])(\\.[0-9]{1,3})?(Z|[+-]((0[0-9]|1[0-3]):[0-5][0-9]|14:00))?)?$");
+
+    private static Integer safeParse(String str) {
+        if (str == null || str.isEmpty())
+            return null;
+        return Integer.parseInt(str);
+    }
+
+    private static Object parseWithRegex(String text) {
+        Matcher m = ISO_PATTERN.matcher(text);
+        if (m.find() && m.groupCount() == 12 && !m.group().isEmpty()) {
+            Integer year = safeParse(m.group(2));
+            Integer month = safeParse(m.group(3));
+            Integer day = safeParse(m.group(4));
+            Integer hour = safeParse(m.group(6));
+            Integer minute = safeParse(m.group(7));
+            Integer second = safeParse(m.group(8));
+            Integer millisecond = 0;
+            if (m.group(9) != null) {
+                String z = (m.group(9) + "000").substring(1, 4);
+                millisecond = safeParse(z);
+            } else {
+                millisecond = 0;
+            }
+            String tzPart = m.group(10);
+
+            if (hour == null) {
+                hour = 0;
+                minute = 0;
+                second = 0;
+            }
+
+            GregorianCalendar gc = new GregorianCalendar(year, month - 1, day, hour, minute, second);
+            gc.set(com.ibm.icu.util.Calendar.MILLISECOND, millisecond);
+
+            if (tzPart != null) {
+                if (tzPart.equals("Z")) {
+                    gc.setTimeZone(TimeZone.GMT_ZONE);
+                } else {
+                    int sign = tzPart.startsWith("-") ? -1 : 1;
+                    String[] tzParts = tzPart.substring(1).split(":");
+                    if (tzParts.length == 2) {
+                        Integer tzHour = safeParse(tzParts[0]);
+                        Integer tzMin = safeParse(tzParts[1]);
+                        if (tzHour != null && tzMin != null) {
+                            int offset = sign * (tzHour * 60 + tzMin) * 60 * 1000;
+                            gc.setTimeZone(new SimpleTimeZone(offset, "offset"));
+                        }
+                    }
+                }
+            }
+
+            return gc;
+        }
+        return text;
+    }
+}
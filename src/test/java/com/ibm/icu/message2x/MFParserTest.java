@@ -0,0 +1,319 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import org.junit.Assume;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the text and literals produced by {@link MFParser}.
+ */
+@SuppressWarnings({"static-method", "javadoc"})
+@RunWith(JUnit4.class)
+public class MFParserTest extends CoreTestFmwk {
+
+    @Test
+    public void testTextAndLiterals() throws MFParseException {
+        MFDataModel.PatternMessage pm = (MFDataModel.PatternMessage) MFParser.parse(
+                "Hello \\{world\\} {|quoted \\| bar| :string} a😀b {name}"
+                        + "{|😀|} end.");
+        List<MFDataModel.PatternPart> parts = pm.pattern.parts;
+        assertEquals("escaped text", "Hello {world} ", ((MFDataModel.StringPart) parts.get(0)).value);
+        assertEquals("escaped literal", "quoted | bar", literalOf(parts.get(1)));
+        assertEquals("text", " a😀b ", ((MFDataModel.StringPart) parts.get(2)).value);
+        assertEquals("name literal", "name", literalOf(parts.get(3)));
+        assertEquals("quoted literal", "😀", literalOf(parts.get(4)));
+        assertEquals("text at end", " end.", ((MFDataModel.StringPart) parts.get(5)).value);
+    }
+
+    @Test
+    public void testLongNumberLiteral() throws MFParseException {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            digits.append((char) ('1' + i % 9));
+        }
+        MFDataModel.PatternMessage pm = (MFDataModel.PatternMessage) MFParser.parse(
+                "{42} {" + digits + "}");
+        MFDataModel.Literal small = ((MFDataModel.LiteralExpression) pm.pattern.parts.get(0)).arg;
+        MFDataModel.Literal big = ((MFDataModel.LiteralExpression) pm.pattern.parts.get(2)).arg;
+        assertEquals("small number", 42L, small.number);
+        // Still a number, but a double: the exact conversion is quadratic in the digits
+        assertEquals("big number", Double.parseDouble(digits.toString()), big.number);
+        assertEquals("big number text", digits.toString(), big.value);
+    }
+
+    private static String literalOf(MFDataModel.PatternPart part) {
+        return ((MFDataModel.LiteralExpression) part).arg.value;
+    }
+
+    // There is no "stuck in a loop" check in the input anymore, so the parser must always
+    // make progress or fail, even on garbage made of syntax characters.
+    @Test(timeout = 60_000)
+    public void testRandomInputTerminates() {
+        String[] pieces = {"{", "}", "{{", "}}", "|", "\\", "$", ":", "@", "#", "/", "=", ".",
+            "-", "+", " ", "\n", "\t", "a", "x1", "1", "-1.5e3", "😀", "\uD83D", ".input",
+            ".local", ".match", "*", "^", "!", "%", "&", "　"};
+        Random random = new Random(42);
+        int failures = 0;
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder message = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int p = 0; p < length; p++) {
+                message.append(pieces[random.nextInt(pieces.length)]);
+            }
+            try {
+                MFParser.parse(message.toString());
+            } catch (MFParseException e) {
+                failures++;
+            }
+        }
+        assertEquals("most random messages are invalid", true, failures > 50_000);
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkParse() throws MFParseException {
+        List<String> catalog = syntheticCatalog(10_000);
+        long chars = 0;
+        for (String message : catalog) {
+            chars += message.length();
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("No allocation counters",
+                bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+
+        for (int round = 0; round < 5; round++) {
+            long bytesBefore = allocations.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (String message : catalog) {
+                MFParser.parse(message);
+            }
+            long time = System.nanoTime() - start;
+            long bytes = allocations.getThreadAllocatedBytes(threadId) - bytesBefore;
+            System.out.printf("%,d messages, %,d chars: %6.1f ms, %5.1f MB/s, %6.2f bytes / char%n",
+                    catalog.size(), chars, time / 1e6, chars * 1e3 / time,
+                    (double) bytes / chars);
+        }
+    }
+
+    // A catalog loaded in one buffer (like a memory mapped file), parsed in place,
+    // compared to decoding each message to a String first
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkParseUtf8() throws MFParseException {
+        List<String> catalog = syntheticCatalog(10_000);
+        int[] ends = new int[catalog.size()];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < catalog.size(); i++) {
+            byte[] bytes = catalog.get(i).getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+            ends[i] = out.size();
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(out.size()).put(out.toByteArray());
+        com.sun.management.ThreadMXBean allocations =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int round = 0; round < 5; round++) {
+            for (boolean inPlace : new boolean[] {true, false}) {
+                long bytesBefore = allocations.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                int begin = 0;
+                for (int end : ends) {
+                    buffer.limit(end).position(begin);
+                    if (inPlace) {
+                        MFParser.parseUtf8(buffer);
+                    } else {
+                        MFParser.parse(StandardCharsets.UTF_8.decode(buffer).toString());
+                    }
+                    begin = end;
+                }
+                long time = System.nanoTime() - start;
+                long bytes = allocations.getThreadAllocatedBytes(threadId) - bytesBefore;
+                System.out.printf("%-8s %,d bytes: %6.1f ms, %5.1f MB/s, %6.2f bytes / byte%n",
+                        inPlace ? "in place" : "decoded", out.size(), time / 1e6,
+                        out.size() * 1e3 / time, (double) bytes / out.size());
+            }
+        }
+    }
+
+    // Inputs that make a backtracking parser slow, or that are just big.
+    // The time per char should not grow with the size.
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkAdversarial() {
+        Map<String, IntFunction<String>> shapes = new LinkedHashMap<>();
+        shapes.put("spaces in placeholder", n -> "{$x" + repeat(" ", n) + "}");
+        shapes.put("spaces, no attribute", n -> "{|a|" + repeat(" ", n) + "@");
+        shapes.put("attributes", n -> "{$x" + repeat(" @a=1", n) + "}");
+        shapes.put("options", n -> {
+            StringBuilder result = new StringBuilder("{$x :f");
+            for (int i = 0; i < n; i++) {
+                result.append(" o").append(i).append("=1");
+            }
+            return result.append('}').toString();
+        });
+        shapes.put("escapes", n -> repeat("\\{", n));
+        shapes.put("unclosed literal", n -> "{|" + repeat("a", n));
+        shapes.put("reserved body", n -> "{!" + repeat(" a|b|", n) + "}");
+        shapes.put("long name", n -> "{$" + repeat("a", n) + "}");
+        shapes.put("long number", n -> "{" + repeat("1", n) + ".5}");
+        shapes.put("long integer", n -> "{" + repeat("1", n) + "}");
+        shapes.put("quoted number", n -> "{|" + repeat("1", n) + "|}");
+        shapes.put("declarations", n -> {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                result.append(".local $v").append(i).append(" = {1}\n");
+            }
+            return result.append("{{}}").toString();
+        });
+        shapes.put("variants", n -> {
+            StringBuilder result = new StringBuilder(".match {$x :string}\n");
+            for (int i = 0; i < n; i++) {
+                result.append('k').append(i).append(" {{}}\n");
+            }
+            return result.append("* {{}}").toString();
+        });
+        shapes.put("open braces", n -> repeat("{", n));
+        printTimes(shapes, message -> {
+            try {
+                MFParser.parse(message);
+            } catch (MFParseException e) {
+                // Some are invalid, on purpose
+            }
+        });
+
+        // The number literals are converted when the message is built, and formatted
+        Map<String, IntFunction<String>> formatted = new LinkedHashMap<>();
+        formatted.put("format integer", n -> "{" + repeat("1", n) + " :number}");
+        formatted.put("format quoted", n -> "{|" + repeat("1", n) + "| :number}");
+        formatted.put("format quoted integer", n -> "{|" + repeat("1", n) + "| :integer}");
+        formatted.put("format as string", n -> "{|" + repeat("1", n) + "|}");
+        Map<String, Object> arguments = new HashMap<>();
+        printTimes(formatted, message ->
+                MessageFormatter.builder().setPattern(message).build().formatToString(arguments));
+    }
+
+    private static void printTimes(Map<String, IntFunction<String>> shapes,
+            Consumer<String> action) {
+        for (Map.Entry<String, IntFunction<String>> shape : shapes.entrySet()) {
+            StringBuilder line = new StringBuilder(String.format("%-22s", shape.getKey()));
+            for (int n : new int[] {1_000, 10_000, 100_000}) {
+                String message = shape.getValue().apply(n);
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    action.accept(message);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                line.append(String.format(" %,9d chars: %5.1f ns/char",
+                        message.length(), (double) best / message.length()));
+            }
+            System.out.println(line);
+        }
+    }
+
+    // Typing in one variant of a big message, as in an editor that validates after each key
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkEdit() throws MFParseException {
+        StringBuilder builder = new StringBuilder(".input {$count :number}\n.match {$count}\n");
+        for (int i = 0; i < 500; i++) {
+            builder.append(i).append(" {{You have {$count} new messages in folder ").append(i)
+                    .append(".}}\n");
+        }
+        String message = builder.append("* {{You have {$count} new messages.}}").toString();
+        int offset = message.indexOf("in folder 250") + "in folder".length();
+        String typed = " the shared";
+
+        for (int round = 0; round < 20; round++) {
+            long start = System.nanoTime();
+            String text = message;
+            for (int i = 0; i < typed.length(); i++) {
+                text = text.substring(0, offset + i) + typed.charAt(i) + text.substring(offset + i);
+                MFParser.parse(text);
+            }
+            long full = System.nanoTime() - start;
+
+            MFParsedMessage parsed = MFParsedMessage.parse(message);
+            start = System.nanoTime();
+            for (int i = 0; i < typed.length(); i++) {
+                parsed = parsed.edit(offset + i, 0, typed.substring(i, i + 1));
+            }
+            long incremental = System.nanoTime() - start;
+            System.out.printf("%,d chars, %d edits: full %7.1f us / edit, incremental %7.1f us"
+                    + " / edit%n", message.length(), typed.length(),
+                    full / 1e3 / typed.length(), incremental / 1e3 / typed.length());
+        }
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder result = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            result.append(text);
+        }
+        return result.toString();
+    }
+
+    // Mostly text, with a few placeholders, like a real catalog
+    static List<String> syntheticCatalog(int count) {
+        Random random = new Random(42);
+        String[] words = {"the", "file", "was", "saved", "to", "your", "folder", "and", "shared",
+            "with", "everyone", "in", "team", "please", "try", "again", "later", "message"};
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder message = new StringBuilder();
+            boolean select = i % 5 == 0;
+            if (select) {
+                message.append(".input {$count :number}\n.match {$count}\n one {{");
+            }
+            int length = 5 + random.nextInt(30);
+            for (int w = 0; w < length; w++) {
+                if (w > 0) {
+                    message.append(' ');
+                }
+                switch (random.nextInt(12)) {
+                    case 0:
+                        message.append("{$user}");
+                        break;
+                    case 1:
+                        message.append("{$count :number minimumFractionDigits=2}");
+                        break;
+                    case 2:
+                        message.append("{|Acme Corp| :string}");
+                        break;
+                    default:
+                        message.append(words[random.nextInt(words.length)]);
+                }
+            }
+            if (select) {
+                message.append(".}}\n * {{").append(words[random.nextInt(words.length)])
+                        .append(" {$count} items.}}\n");
+            } else {
+                message.append('.');
+            }
+            result.add(message.toString());
+        }
+        return result;
+    }
+}
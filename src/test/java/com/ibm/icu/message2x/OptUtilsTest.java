@@ -0,0 +1,96 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the number parsing and the cache keys in {@link OptUtils}.
+ */
+@SuppressWarnings({"static-method", "javadoc"})
+@RunWith(JUnit4.class)
+public class OptUtilsTest extends CoreTestFmwk {
+
+    @Test
+    public void testNumberLiterals() {
+        assertEquals("0", 0L, OptUtils.parseNumberLiteral("0"));
+        assertEquals("42", 42L, OptUtils.parseNumberLiteral("42"));
+        assertEquals("-42", -42L, OptUtils.parseNumberLiteral("-42"));
+        assertEquals("-0", -0.0d, OptUtils.parseNumberLiteral("-0"));
+        assertEquals("1.5", 1.5d, OptUtils.parseNumberLiteral("1.5"));
+        assertEquals("1e3", 1000d, OptUtils.parseNumberLiteral("1e3"));
+        assertEquals("-2.5E-2", -0.025d, OptUtils.parseNumberLiteral("-2.5E-2"));
+        assertEquals("max long", Long.MAX_VALUE,
+                OptUtils.parseNumberLiteral("9223372036854775807"));
+        assertEquals("min long", Long.MIN_VALUE,
+                OptUtils.parseNumberLiteral("-9223372036854775808"));
+        assertEquals("big", new BigDecimal("9223372036854775808"),
+                OptUtils.parseNumberLiteral("9223372036854775808"));
+        // Longer integers are converted to double, an exact conversion is quadratic
+        StringBuilder digits = new StringBuilder("1");
+        while (digits.length() < OptUtils.MAX_EXACT_DIGITS) {
+            digits.append('0');
+        }
+        assertEquals("longest exact", new BigDecimal(digits.toString()),
+                OptUtils.parseNumberLiteral(digits));
+        digits.append('0');
+        assertEquals("too long", 1e100, OptUtils.parseNumberLiteral(digits));
+        assertEquals("too long, quoted", 1e100, new MFDataModel.Literal(digits.toString()).number);
+
+        String[] invalid = {"", "-", "01", "+1", ".5", "5.", "1e", "1e+", "1.5.2", " 1", "1 ",
+            "1d", "NaN", "Infinity", "0x10", "one", "١٢"};
+        for (String text : invalid) {
+            assertEquals("invalid '" + text + "'", null, OptUtils.parseNumberLiteral(text));
+        }
+    }
+
+    @Test
+    public void testCacheKey() {
+        String[] names = {"style", "minimumFractionDigits"};
+        Map<String, Object> options = new HashMap<>();
+        options.put("user", "John");
+        assertEquals("none of the names", null, OptUtils.cacheKey(options, names));
+        options.put("minimumFractionDigits", 2L);
+        assertEquals("in the order of the names", Arrays.asList(null, 2L),
+                OptUtils.cacheKey(options, names));
+        options.put("user", "Jane");
+        assertEquals("other options ignored", Arrays.asList(null, 2L),
+                OptUtils.cacheKey(options, names));
+
+        // Compared by value, as the functions read them
+        options.put("style", new StringBuilder("percent"));
+        assertEquals("text", Arrays.asList("percent", 2L), OptUtils.cacheKey(options, names));
+        options.put("style", new FormattedPlaceholder("percent",
+                new PlainStringFormattedValue("percent")));
+        assertEquals("read as missing", Arrays.asList(null, 2L),
+                OptUtils.cacheKey(options, names));
+        options.put("minimumFractionDigits", new java.util.concurrent.atomic.AtomicInteger(2));
+        assertEquals("no value equality", true,
+                OptUtils.cacheKey(options, names) == OptUtils.NOT_CACHEABLE);
+    }
+
+    @Test
+    public void testSameAsParseDouble() {
+        String[] strings = {"0", "42", "-42", "1.5", "1e3", "-2.5E-2", "12345678901234567890",
+            "+1", ".5", "5.", " 7 ", "1d", "2f", "NaN", "-Infinity", "0x1p3",
+            "", "-", "one", "other", "1st", "1e", "x1", "$5"};
+        for (String text : strings) {
+            Double expected;
+            try {
+                expected = Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                expected = null;
+            }
+            Number actual = OptUtils.asNumber(text);
+            assertEquals("'" + text + "'", expected, actual == null ? null : actual.doubleValue());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link OptionMap}, that must behave like any other {@link Map}.
+ */
+@SuppressWarnings({"static-method", "javadoc"})
+@RunWith(JUnit4.class)
+public class OptionMapTest extends CoreTestFmwk {
+    private static final String[] NAMES = {"style", "minimumFractionDigits", "unit"};
+
+    @Test
+    public void testSameAsHashMap() {
+        Map<String, Object> options = new OptionMap(NAMES, new Object[] {"percent", 2, null});
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("style", "percent");
+        expected.put("minimumFractionDigits", 2);
+        expected.put("unit", null);
+
+        assertEquals("size", 3, options.size());
+        assertEquals("get", 2, options.get("minimumFractionDigits"));
+        assertEquals("get null value", null, options.get("unit"));
+        assertEquals("contains null value", true, options.containsKey("unit"));
+        assertEquals("get missing", null, options.get("currency"));
+        assertEquals("contains missing", false, options.containsKey("currency"));
+
+        assertEquals("equals", expected, options);
+        assertEquals("equals, reversed", options, expected);
+        assertEquals("hashCode", expected.hashCode(), options.hashCode());
+        assertEquals("entrySet", expected.entrySet(), options.entrySet());
+        assertEquals("copy", expected, new HashMap<>(options));
+
+        expected.put("unit", "meter");
+        assertEquals("different value", false, options.equals(expected));
+        expected.remove("unit");
+        assertEquals("different size", false, options.equals(expected));
+    }
+
+    @Test
+    public void testCacheKey() {
+        BoundedCache<Map<String, Object>, String> cache = new BoundedCache<>(10);
+        Map<String, Object> key = new HashMap<>();
+        key.put("style", "percent");
+        key.put("minimumFractionDigits", 2);
+        key.put("unit", "meter");
+        cache.put(key, "found");
+        assertEquals("found",
+                "found", cache.get(new OptionMap(NAMES, new Object[] {"percent", 2, "meter"})));
+        assertEquals("not found",
+                null, cache.get(new OptionMap(NAMES, new Object[] {"percent", 3, "meter"})));
+    }
+
+    @Test
+    public void testReadOnly() {
+        Map<String, Object> options = new OptionMap(NAMES, new Object[] {"percent", 2, null});
+        Assert.assertThrows(UnsupportedOperationException.class,
+                () -> options.put("style", "decimal"));
+        Assert.assertThrows(UnsupportedOperationException.class,
+                () -> options.remove("style"));
+    }
+}
@@ -0,0 +1,163 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that the {@link SelectionIndex} selects the same variant as the spec algorithm,
+ * for the {@code .match} messages in the JSON test suites.
+ */
+@SuppressWarnings({"static-method", "javadoc"})
+@RunWith(JUnit4.class)
+public class SelectionIndexTest extends CoreTestFmwk {
+    private static final String JSON_FOLDER = "com/ibm/icu/dev/test/message2/";
+    private static final String[] JSON_FILES = {
+        "data-model-errors.json",
+        "icu-test-functions.json",
+        "icu-test-previous-release.json",
+        "icu-test-selectors.json",
+        "test-core.json",
+        "test-functions.json"
+    };
+    private static final int RANDOM_PREFS_PER_MESSAGE = 500;
+
+    @Test
+    public void testSameAsSpec() throws Exception {
+        int messageCount = 0;
+        for (String jsonFile : JSON_FILES) {
+            for (String src : loadSources(jsonFile)) {
+                String[][] variantKeys = variantKeys(src);
+                if (variantKeys != null) {
+                    checkSameAsSpec(src, variantKeys);
+                    messageCount++;
+                }
+            }
+        }
+        assertTrue("Found .match messages to test", messageCount > 20);
+    }
+
+    @Test
+    public void testManyVariants() {
+        // More than 64 variants, so that the bitsets take more than one word
+        String[][] variantKeys = new String[200][];
+        for (int i = 0; i < variantKeys.length; i++) {
+            variantKeys[i] = new String[] {
+                i % 7 == 0 ? null : "a" + (i % 5),
+                i % 11 == 0 ? null : "b" + (i % 3)
+            };
+        }
+        checkSameAsSpec("generated", variantKeys);
+    }
+
+    private static void checkSameAsSpec(String src, String[][] variantKeys) {
+        int selectorCount = variantKeys[0].length;
+        SelectionIndex index = new SelectionIndex(variantKeys, selectorCount);
+        Random random = new Random(src.hashCode());
+        for (int count = 0; count < RANDOM_PREFS_PER_MESSAGE; count++) {
+            List<List<String>> pref = new ArrayList<>(selectorCount);
+            for (int i = 0; i < selectorCount; i++) {
+                List<String> matches = new ArrayList<>();
+                for (String key : index.getKeys(i)) {
+                    if (random.nextBoolean()) {
+                        matches.add(key);
+                    }
+                }
+                if (random.nextInt(4) == 0) {
+                    // A key that no variant uses
+                    matches.add("unknown");
+                }
+                Collections.shuffle(matches, random);
+                pref.add(matches);
+            }
+            assertEquals(src + " " + pref,
+                    SelectionIndex.selectBySpec(variantKeys, pref),
+                    index.select(pref));
+        }
+    }
+
+    // Returns null if the message is not a valid .match
+    private static String[][] variantKeys(String src) {
+        MFDataModel.Message message;
+        try {
+            message = MFParser.parse(src);
+        } catch (MFParseException e) {
+            return null;
+        }
+        if (!(message instanceof MFDataModel.SelectMessage)) {
+            return null;
+        }
+        MFDataModel.SelectMessage sm = (MFDataModel.SelectMessage) message;
+        if (sm.variants.isEmpty()) {
+            return null;
+        }
+        int selectorCount = sm.selectors.size();
+        String[][] result = new String[sm.variants.size()][];
+        for (int v = 0; v < result.length; v++) {
+            List<MFDataModel.LiteralOrCatchallKey> keys = sm.variants.get(v).keys;
+            if (keys.size() != selectorCount) {
+                return null;
+            }
+            result[v] = new String[selectorCount];
+            for (int i = 0; i < selectorCount; i++) {
+                MFDataModel.LiteralOrCatchallKey key = keys.get(i);
+                result[v][i] = key instanceof MFDataModel.Literal
+                        ? ((MFDataModel.Literal) key).value
+                        : null;
+            }
+        }
+        return result;
+    }
+
+    private static List<String> loadSources(String jsonFile) throws Exception {
+        List<String> result = new ArrayList<>();
+        ClassLoader classLoader = SelectionIndexTest.class.getClassLoader();
+        try (InputStream is = classLoader.getResourceAsStream(JSON_FOLDER + jsonFile);
+                Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+            collectSources(JsonParser.parseReader(reader), result);
+        }
+        return result;
+    }
+
+    private static void collectSources(JsonElement element, List<String> result) {
+        if (element.isJsonArray()) {
+            for (JsonElement child : (JsonArray) element) {
+                collectSources(child, result);
+            }
+        } else if (element.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> e : ((JsonObject) element).entrySet()) {
+                JsonElement value = e.getValue();
+                if (e.getKey().equals("src") && value.isJsonPrimitive()) {
+                    result.add(value.getAsString());
+                } else if (e.getKey().equals("srcs") && value.isJsonArray()) {
+                    StringBuilder src = new StringBuilder();
+                    for (JsonElement part : (JsonArray) value) {
+                        src.append(part.getAsString());
+                    }
+                    result.add(src.toString());
+                } else {
+                    collectSources(value, result);
+                }
+            }
+        }
+    }
+}
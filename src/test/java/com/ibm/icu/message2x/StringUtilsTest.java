@@ -0,0 +1,73 @@
+// © 2024 and later: Unicode, Inc. and others.
+// License & terms of use: https://www.unicode.org/copyright.html
+
+package com.ibm.icu.message2x;
+
+import com.ibm.icu.dev.test.CoreTestFmwk;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the character classes and the number scanner in {@link StringUtils}.
+ */
+@SuppressWarnings({"static-method", "javadoc"})
+@RunWith(JUnit4.class)
+public class StringUtilsTest extends CoreTestFmwk {
+
+    // The regular expression used by the parser before the hand written scanner
+    private static final Pattern RE_NUMBER_LITERAL =
+            Pattern.compile("^-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+\\-]?[0-9]+)?");
+
+    @Test
+    public void testTableSameAsRanges() {
+        for (int cp = -1; cp <= 0x110000; cp++) {
+            String where = Integer.toHexString(cp);
+            assertEquals("content " + where,
+                    StringUtils.computeContentChar(cp), StringUtils.isContentChar(cp));
+            assertEquals("text " + where,
+                    StringUtils.computeTextChar(cp), StringUtils.isTextChar(cp));
+            assertEquals("whitespace " + where,
+                    StringUtils.computeWhitespace(cp), StringUtils.isWhitespace(cp));
+            assertEquals("name start " + where,
+                    StringUtils.computeNameStart(cp), StringUtils.isNameStart(cp));
+            assertEquals("name char " + where,
+                    StringUtils.computeNameChar(cp), StringUtils.isNameChar(cp));
+            assertEquals("quoted " + where,
+                    StringUtils.computeQuotedChar(cp), StringUtils.isQuotedChar(cp));
+            assertEquals("reserved " + where,
+                    StringUtils.computeReservedChar(cp), StringUtils.isReservedChar(cp));
+            assertEquals("simple start " + where,
+                    StringUtils.computeSimpleStartChar(cp), StringUtils.isSimpleStartChar(cp));
+        }
+    }
+
+    @Test
+    public void testNumberLiteralEnd() {
+        String[] cases = {"0", "-0", "123", "01", "1.", "1.5", "-1.5e10", "1E+2", "1e-", "-",
+            "", ".5", "1.5.6", "1e5e6", "12 34", "-a", "0x10", "1.e5"};
+        for (String text : cases) {
+            assertEquals(text, regexEnd(text), StringUtils.numberLiteralEnd(text, 0));
+        }
+        assertEquals("from an offset", 10, StringUtils.numberLiteralEnd("{$x :n 2.5}", 7));
+
+        Random random = new Random(42);
+        char[] alphabet = "0123456789-+.eEx ".toCharArray();
+        for (int i = 0; i < 100_000; i++) {
+            char[] chars = new char[random.nextInt(12)];
+            for (int c = 0; c < chars.length; c++) {
+                chars[c] = alphabet[random.nextInt(alphabet.length)];
+            }
+            String text = new String(chars);
+            assertEquals(text, regexEnd(text), StringUtils.numberLiteralEnd(text, 0));
+        }
+    }
+
+    private static int regexEnd(String text) {
+        Matcher matcher = RE_NUMBER_LITERAL.matcher(text);
+        return matcher.find() ? matcher.end() : -1;
+    }
+}